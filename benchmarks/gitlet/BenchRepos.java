@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Builders of synthetic repositories and inputs for the benchmarks.
+ *  Gitlet works on the current directory, so the benchmarks must be run
+ *  from a scratch directory holding the marker file MARKER; every
+ *  repository built here replaces whatever that directory contains.
+ *  @author Arvind Vivekanandan
+ */
+class BenchRepos {
+
+    /** File that must exist in the current directory before it is
+     *  cleared. */
+    static final String MARKER = ".gitlet-bench";
+
+    /** Remove the repository and all plain files, other than the marker,
+     *  from the current directory, then create a new repository and return
+     *  it. */
+    static GitletRepo init() throws IOException {
+        if (!Utils.join(GitletRepo.CWD, MARKER).exists()) {
+            throw new IllegalStateException("benchmarks must be run from a "
+                    + "scratch directory containing " + MARKER);
+        }
+        deleteTree(GitletRepo.GITLET_FOLDER);
+        for (String name : Utils.plainFilenamesIn(GitletRepo.CWD)) {
+            if (!name.equals(MARKER)) {
+                Utils.join(GitletRepo.CWD, name).delete();
+            }
+        }
+        new GitletRepo().init();
+        return new GitletRepo();
+    }
+
+    /** Store CONTENTS as a blob and return its hash. */
+    static ObjectId writeBlob(byte[] contents) {
+        ObjectId hash = Utils.sha1Id(contents);
+        Utils.writeContents(Utils.join(GitletRepo.BLOBS_FOLDER,
+                hash.toString()), contents);
+        return hash;
+    }
+
+    /** Store a commit with parents PARENT and MERGEPARENT (null if none),
+     *  message MESSAGE and files BLOBS, and return it. */
+    static Commit writeCommit(String parent, String mergeParent,
+                              String message,
+                              TreeMap<String, ObjectId> blobs) {
+        Commit commit = new Commit(parent, message, blobs);
+        if (mergeParent != null) {
+            commit.setMergeCommit(mergeParent);
+        }
+        GitletRepo.writeCommit(commit);
+        return commit;
+    }
+
+    /** Return a map of COUNT file names to made-up blob hashes. */
+    static TreeMap<String, ObjectId> blobMap(int count) {
+        TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            blobs.put("file" + i + ".txt", Utils.sha1Id("blob", "" + i));
+        }
+        return blobs;
+    }
+
+    /** Return COUNT random lines drawn from a vocabulary of VOCABULARY
+     *  words, using RANDOM. */
+    static List<String> lines(int count, int vocabulary, Random random) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            result.add("line " + random.nextInt(vocabulary));
+        }
+        return result;
+    }
+
+    /** Return a copy of LINES in which about one line in EVERY has been
+     *  replaced, deleted or followed by a new line, using RANDOM. */
+    static List<String> edit(List<String> lines, int every, Random random) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String line : lines) {
+            switch (random.nextInt(3 * every)) {
+            case 0:
+                result.add("changed " + random.nextInt());
+                break;
+            case 1:
+                break;
+            case 2:
+                result.add(line);
+                result.add("inserted " + random.nextInt());
+                break;
+            default:
+                result.add(line);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Replace System.out with a stream that discards its output, and
+     *  return the original. */
+    static PrintStream silence() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return out;
+    }
+
+    /** Delete FILE and, if it is a directory, everything under it. */
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of serializing, reading, hashing and comparing commits that
+ *  track from 10 to 100,000 files.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class CommitBenchmark {
+
+    /** Number of files tracked by the commit. */
+    @Param({"10", "1000", "100000"})
+    public int blobs;
+
+    /** The commit under test. */
+    private Commit commit;
+    /** File holding COMMIT in serialized form. */
+    private File commitFile;
+    /** The blobs of COMMIT as read back from its manifest, equal to but
+     *  not the same objects as COMMIT's. */
+    private TreeMap<String, ObjectId> readBlobs;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchRepos.init();
+        commit = BenchRepos.writeCommit(null, null, "benchmark",
+                BenchRepos.blobMap(blobs));
+        commitFile = Utils.join(GitletRepo.COMMIT_FOLDER, commit.getHash());
+        readBlobs = Commit.read(commitFile).getBlobs();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.serialize(commit);
+    }
+
+    @Benchmark
+    public Commit readObject() {
+        return Commit.read(commitFile);
+    }
+
+    @Benchmark
+    public TreeMap<String, ObjectId> readBlobs() {
+        return Commit.read(commitFile).getBlobs();
+    }
+
+    @Benchmark
+    public String getHash() {
+        return commit.getHash();
+    }
+
+    /** Compare every blob hash of the commit with that of the same path
+     *  in another commit, as finding the paths a commit changed does. */
+    @Benchmark
+    public int compareBlobs() {
+        int same = 0;
+        for (Map.Entry<String, ObjectId> entry
+                 : commit.getBlobs().entrySet()) {
+            if (entry.getValue().equals(readBlobs.get(entry.getKey()))) {
+                same += 1;
+            }
+        }
+        return same;
+    }
+}
@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of reading every commit of a linear history of COMMITS
+ *  commits, each tracking BLOBS files, from loose files or from a
+ *  CommitPack, reported per commit.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class CommitPackBenchmark {
+
+    /** Number of commits in the history. */
+    public static final int COMMITS = 1000;
+
+    /** True iff the commits are packed. */
+    @Param({"false", "true"})
+    public boolean packed;
+
+    /** Number of files tracked by each commit. */
+    @Param({"10", "10000"})
+    public int blobs;
+
+    /** The hash of the last commit. */
+    private String tip;
+
+    @Setup
+    public void setup() throws IOException {
+        GitletRepo repo = BenchRepos.init();
+        TreeMap<String, ObjectId> files = BenchRepos.blobMap(blobs);
+        Commit commit = repo.currentCommit();
+        for (int i = 0; i < COMMITS; i += 1) {
+            commit = BenchRepos.writeCommit(commit.getHash(), null,
+                    "commit " + i, files);
+        }
+        tip = commit.getHash();
+        if (packed) {
+            CommitPack.write(GitletRepo.COMMIT_FOLDER,
+                    GitletRepo.COMMIT_FOLDER.list());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMITS)
+    public int walk() {
+        int count = 0;
+        for (String hash = tip; hash != null; count += 1) {
+            hash = Commit.read(Utils.join(GitletRepo.COMMIT_FOLDER,
+                    hash)).getParentHash();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,47 @@
+package gitlet;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Diff.diffs on files of growing length, where about one
+ *  line in twenty has been edited.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class DiffBenchmark {
+
+    /** Number of lines in the original file. */
+    @Param({"100", "1000", "10000", "100000"})
+    public int lines;
+
+    /** The two versions compared. */
+    private List<String> original, edited;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(lines);
+        original = BenchRepos.lines(lines, lines / 2 + 1, random);
+        edited = BenchRepos.edit(original, 20, random);
+    }
+
+    @Benchmark
+    public int[] diffs() {
+        Diff diff = new Diff();
+        diff.setSequences(original, edited);
+        return diff.diffs();
+    }
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Generates a synthetic repository in the current directory.  Usage:
+ *
+ *      java gitlet.RepoGenerator [--files N] [--commits N] [--branches N]
+ *          [--merge-every N] [--changes N] [--min-size B] [--max-size B]
+ *          [--seed S]
+ *
+ *  The first commit imports FILES files whose sizes are spread
+ *  log-uniformly between MIN-SIZE and MAX-SIZE bytes.  COMMITS further
+ *  commits, each rewriting one line in each of CHANGES files, are spread
+ *  over master and BRANCHES topic branches; each topic branch is merged
+ *  into master after every MERGE-EVERY of its commits.  Every branch only
+ *  edits its own share of the files, so the merges are clean, as they
+ *  would be for gitlet's own merge.  The same arguments always produce
+ *  the same files, contents and history; only commit timestamps, and
+ *  hence commit ids, differ between runs.
+ *
+ *  Commits and blobs are written directly rather than through add and
+ *  commit, so that large repositories can be generated quickly; reset and
+ *  branch then point the branches at them and check out master.
+ *  @author Arvind Vivekanandan
+ */
+public class RepoGenerator {
+
+    /** Generate a repository as described by ARGS. */
+    public static void main(String... args) throws IOException {
+        RepoGenerator generator = new RepoGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            generator.set(args[i], Long.parseLong(args[i + 1]));
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("missing value for "
+                    + args[args.length - 1]);
+        }
+        if (GitletRepo.GITLET_FOLDER.exists()) {
+            throw new IllegalStateException("a repository already exists "
+                    + "in the current directory");
+        }
+        generator.generate();
+    }
+
+    /** Set the parameter named by OPTION (as on the command line) to
+     *  VALUE. */
+    void set(String option, long value) {
+        switch (option) {
+        case "--files":
+            _files = (int) value;
+            break;
+        case "--commits":
+            _commits = (int) value;
+            break;
+        case "--branches":
+            _branches = (int) value;
+            break;
+        case "--merge-every":
+            _mergeEvery = (int) Math.max(1, value);
+            break;
+        case "--changes":
+            _changes = (int) value;
+            break;
+        case "--min-size":
+            _minSize = (int) Math.max(1, value);
+            break;
+        case "--max-size":
+            _maxSize = (int) value;
+            break;
+        case "--seed":
+            _random = new Random(value);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown option " + option);
+        }
+    }
+
+    /** Create the repository. */
+    void generate() throws IOException {
+        new GitletRepo().init();
+        GitletRepo repo = new GitletRepo();
+
+        TreeMap<String, ObjectId> initial = new TreeMap<>();
+        for (int i = 0; i < _files; i += 1) {
+            initial.put(fileName(i), BenchRepos.writeBlob(contents()));
+        }
+        Commit base = BenchRepos.writeCommit(repo.currentCommit().getHash(),
+                null, "Initial import", initial);
+
+        ArrayList<Commit> tips = new ArrayList<>();
+        for (int b = 0; b <= _branches; b += 1) {
+            tips.add(base);
+        }
+        int made = 0;
+        while (made < _commits) {
+            for (int b = 1; b <= _branches && made < _commits; b += 1) {
+                for (int k = 0; k < _mergeEvery && made < _commits; k += 1) {
+                    tips.set(b, change(tips.get(b), b, made));
+                    made += 1;
+                }
+                tips.set(0, merge(tips.get(0), tips.get(b), b));
+            }
+            for (int k = 0; k < _mergeEvery && made < _commits; k += 1) {
+                tips.set(0, change(tips.get(0), 0, made));
+                made += 1;
+            }
+        }
+
+        for (int b = 1; b <= _branches; b += 1) {
+            new GitletRepo().reset(tips.get(b).getHash());
+            new GitletRepo().branch(branchName(b));
+        }
+        new GitletRepo().reset(tips.get(0).getHash());
+    }
+
+    /** Return a commit on top of PARENT, made on branch BRANCH, that
+     *  rewrites a line in each of _changes of that branch's files.  N
+     *  numbers the commit. */
+    private Commit change(Commit parent, int branch, int n) {
+        @SuppressWarnings("unchecked")
+        TreeMap<String, ObjectId> blobs =
+                (TreeMap<String, ObjectId>) parent.getBlobs().clone();
+        int owned = (_files - branch + _branches) / (_branches + 1);
+        for (int k = 0; k < _changes && owned > 0; k += 1) {
+            String name = fileName(branch
+                    + (_branches + 1) * _random.nextInt(owned));
+            String[] lines = new String(Utils.readContents(Utils.join(
+                    GitletRepo.BLOBS_FOLDER, blobs.get(name).toString())),
+                    StandardCharsets.UTF_8).split("\n", -1);
+            lines[_random.nextInt(Math.max(1, lines.length - 1))] = line();
+            blobs.put(name, BenchRepos.writeBlob(String.join("\n", lines)
+                    .getBytes(StandardCharsets.UTF_8)));
+        }
+        return BenchRepos.writeCommit(parent.getHash(), null,
+                "Change " + n + " on " + branchName(branch), blobs);
+    }
+
+    /** Return the commit merging GIVEN, the tip of topic branch BRANCH,
+     *  into CURRENT, the tip of master. */
+    private Commit merge(Commit current, Commit given, int branch) {
+        TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> entry
+                 : current.getBlobs().entrySet()) {
+            blobs.put(entry.getKey(), entry.getValue());
+        }
+        for (int i = branch; i < _files; i += _branches + 1) {
+            blobs.put(fileName(i), given.getBlobs().get(fileName(i)));
+        }
+        return BenchRepos.writeCommit(current.getHash(), given.getHash(),
+                "Merged " + branchName(branch) + " into master.", blobs);
+    }
+
+    /** Return the contents of a new file, whose size is drawn log-uniformly
+     *  from [_minSize, _maxSize]. */
+    private byte[] contents() {
+        double logSize = Math.log(_minSize) + _random.nextDouble()
+                * (Math.log(Math.max(_minSize, _maxSize)) - Math.log(_minSize));
+        long size = Math.round(Math.exp(logSize));
+        StringBuilder result = new StringBuilder();
+        while (result.length() < size) {
+            result.append(line()).append('\n');
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return a random line of text. */
+    private String line() {
+        StringBuilder result = new StringBuilder();
+        int words = 4 + _random.nextInt(8);
+        for (int w = 0; w < words; w += 1) {
+            result.append(w == 0 ? "" : " ")
+                .append(Integer.toString(_random.nextInt(1 << 20), 36));
+        }
+        return result.toString();
+    }
+
+    /** Return the name of file number I. */
+    static String fileName(int i) {
+        return String.format("f%06d.txt", i);
+    }
+
+    /** Return the name of branch B, where 0 is master. */
+    static String branchName(int b) {
+        return b == 0 ? "master" : "topic" + b;
+    }
+
+    /** Number of files imported by the first commit. */
+    private int _files = 1000;
+    /** Number of commits made after the import, not counting merges. */
+    private int _commits = 200;
+    /** Number of topic branches. */
+    private int _branches = 4;
+    /** Number of commits on a topic branch between merges into master. */
+    private int _mergeEvery = 10;
+    /** Number of files changed by each commit. */
+    private int _changes = 5;
+    /** Least and greatest size of a new file, in bytes. */
+    private int _minSize = 100, _maxSize = 100000;
+    /** Source of all the contents and choices. */
+    private Random _random = new Random(61);
+}
@@ -0,0 +1,428 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** End-to-end scale benchmark.  Usage:
+ *
+ *      java gitlet.ScaleBenchmark [--scenario SPEC]... [--reps N]
+ *          [--dir DIR] [--csv FILE] [--json FILE] [--baseline FILE]
+ *          [--threshold PERCENT]
+ *
+ *  For each scenario, RepoGenerator builds a repository under DIR, and
+ *  add, commit, status, log, global-log, checkout, merge, push and fetch
+ *  are each run N times as separate "java gitlet.Main" processes, as a
+ *  user would run them, timing each run.  A SPEC is one of the names
+ *  small (the default), medium or large, or
+ *  NAME:FILES:COMMITS:BRANCHES:MERGE-EVERY.
+ *
+ *  Results are printed as a table and may also be written as CSV and
+ *  JSON.  Given the CSV of an earlier run as a baseline, each command's
+ *  median is compared with the baseline's; the program exits with status
+ *  1 if any is more than PERCENT slower.
+ *  @author Arvind Vivekanandan
+ */
+public class ScaleBenchmark {
+
+    /** Predefined scenarios: name, files, commits, branches, merge
+     *  interval. */
+    static final String[] SCENARIOS = {
+        "small:100:50:2:5",
+        "medium:1000:500:4:10",
+        "large:10000:2000:8:20",
+    };
+
+    /** CSV header line. */
+    static final String CSV_HEADER = "scenario,files,commits,command,reps,"
+        + "median_ms,min_ms,max_ms,baseline_ms,change_pct";
+
+    /** Run the scenarios described by ARGS. */
+    public static void main(String... args) throws IOException {
+        ArrayList<String> scenarios = new ArrayList<>();
+        int reps = 3;
+        double threshold = 20;
+        File dir = new File("scratch", "scale");
+        File csv = null, json = null, baseline = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--scenario":
+                scenarios.add(scenario(args[i + 1]));
+                break;
+            case "--reps":
+                reps = Integer.parseInt(args[i + 1]);
+                break;
+            case "--dir":
+                dir = new File(args[i + 1]);
+                break;
+            case "--csv":
+                csv = new File(args[i + 1]);
+                break;
+            case "--json":
+                json = new File(args[i + 1]);
+                break;
+            case "--baseline":
+                baseline = new File(args[i + 1]);
+                break;
+            case "--threshold":
+                threshold = Double.parseDouble(args[i + 1]);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option "
+                        + args[i]);
+            }
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.add(SCENARIOS[0]);
+        }
+
+        HashMap<String, Double> baselines = readBaseline(baseline);
+        ArrayList<Result> results = new ArrayList<>();
+        for (String spec : scenarios) {
+            ScaleBenchmark bench = new ScaleBenchmark(spec.split(":"),
+                    dir.getAbsoluteFile(), reps);
+            results.addAll(bench.run());
+        }
+
+        boolean regressed = false;
+        System.out.printf("%-8s %-11s %10s %10s %10s %10s %8s%n",
+                "scenario", "command", "median_ms", "min_ms", "max_ms",
+                "base_ms", "change");
+        for (Result result : results) {
+            Double base = baselines.get(result.key());
+            result.baseline = base == null ? Double.NaN : base;
+            boolean slow = result.change() > threshold;
+            regressed |= slow;
+            System.out.printf("%-8s %-11s %10.1f %10.1f %10.1f %10.1f "
+                    + "%7.1f%%%s%n", result.scenario, result.command,
+                    result.median(), result.min(), result.max(),
+                    result.baseline, result.change(),
+                    slow ? "  REGRESSION" : "");
+        }
+        if (csv != null) {
+            Files.write(csv.toPath(), toCsv(results));
+        }
+        if (json != null) {
+            Files.writeString(json.toPath(), toJson(results));
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /** Return SPEC with a predefined scenario name replaced by its full
+     *  description. */
+    static String scenario(String spec) {
+        for (String known : SCENARIOS) {
+            if (known.startsWith(spec + ":")) {
+                return known;
+            }
+        }
+        if (spec.split(":").length != 5) {
+            throw new IllegalArgumentException("bad scenario " + spec);
+        }
+        return spec;
+    }
+
+    /** A benchmark of scenario SPEC (name, files, commits, branches and
+     *  merge interval), generated in a subdirectory of DIR and running each
+     *  command REPS times. */
+    ScaleBenchmark(String[] spec, File dir, int reps) {
+        _name = spec[0];
+        _files = Integer.parseInt(spec[1]);
+        _commits = Integer.parseInt(spec[2]);
+        _branches = Integer.parseInt(spec[3]);
+        _mergeEvery = Integer.parseInt(spec[4]);
+        _local = new File(new File(dir, _name), "local");
+        _remote = new File(new File(dir, _name), "remote");
+        _reps = reps;
+    }
+
+    /** Generate the repository and return the timings of each command. */
+    List<Result> run() throws IOException {
+        deleteTree(_local.getParentFile());
+        _local.mkdirs();
+        long start = System.nanoTime();
+        gitlet(_local, "gitlet.RepoGenerator", "--files", "" + _files,
+                "--commits", "" + _commits, "--branches", "" + _branches,
+                "--merge-every", "" + _mergeEvery);
+        System.err.printf("%s: generated in %.1f s%n", _name,
+                (System.nanoTime() - start) / 1e9);
+        copyTree(_local.toPath(), _remote.toPath());
+        main(_local, "add-remote", "origin", String.join(File.separator,
+                "..", _remote.getName(), ".gitlet"));
+
+        ArrayList<Result> results = new ArrayList<>();
+        String file = RepoGenerator.fileName(0);
+        String topicFile = RepoGenerator.fileName(1);
+        Result add = result("add"), commit = result("commit"),
+            status = result("status"), log = result("log"),
+            globalLog = result("global-log"), checkout = result("checkout"),
+            merge = result("merge"), push = result("push"),
+            fetch = result("fetch");
+        for (int rep = 0; rep < _reps; rep += 1) {
+            edit(_local, file, "add " + rep);
+            add.add(main(_local, "add", file));
+            edit(_local, file, "commit " + rep);
+            main(_local, "add", file);
+            commit.add(main(_local, "commit", "Commit " + rep));
+            status.add(main(_local, "status"));
+            log.add(main(_local, "log"));
+            globalLog.add(main(_local, "global-log"));
+            if (_branches > 0) {
+                checkout.add(main(_local, "checkout", "topic1"));
+                main(_local, "checkout", "master");
+            }
+
+            main(_local, "branch", "merge" + rep);
+            main(_local, "checkout", "merge" + rep);
+            edit(_local, topicFile, "merge " + rep);
+            main(_local, "add", topicFile);
+            main(_local, "commit", "Topic " + rep);
+            main(_local, "checkout", "master");
+            edit(_local, file, "master " + rep);
+            main(_local, "add", file);
+            main(_local, "commit", "Master " + rep);
+            merge.add(main(_local, "merge", "merge" + rep));
+
+            push.add(main(_local, "push", "origin", "master"));
+        }
+        for (int rep = 0; rep < _reps; rep += 1) {
+            main(_remote, "reset", headCommit(_remote));
+            edit(_remote, file, "fetch " + rep);
+            main(_remote, "add", file);
+            main(_remote, "commit", "Remote " + rep);
+            fetch.add(main(_local, "fetch", "origin", "master"));
+        }
+        for (Result result : List.of(add, commit, status, log, globalLog,
+                checkout, merge, push, fetch)) {
+            if (!result.times.isEmpty()) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /** Return an empty result for COMMAND in this scenario. */
+    private Result result(String command) {
+        return new Result(_name, _files, _commits, command);
+    }
+
+    /** Return the id of the current commit of the repository in DIR,
+     *  whose branch may have been moved by a push. */
+    private String headCommit(File dir) {
+        String log = output(dir, "gitlet.Main", "log");
+        return log.substring(log.indexOf("commit ") + 7,
+                log.indexOf("commit ") + 47);
+    }
+
+    /** Append the line TEXT to FILE in DIR. */
+    private static void edit(File dir, String file, String text) {
+        try {
+            Files.writeString(new File(dir, file).toPath(), text + "\n",
+                    StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Run gitlet's main program with ARGS in DIR and return the time it
+     *  took in milliseconds. */
+    private static double main(File dir, String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = "gitlet.Main";
+        System.arraycopy(args, 0, command, 1, args.length);
+        return gitlet(dir, command);
+    }
+
+    /** Run the Java class and arguments in COMMAND in DIR and return the
+     *  time it took in milliseconds. */
+    private static double gitlet(File dir, String... command) {
+        long start = System.nanoTime();
+        output(dir, command);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Run the Java class and arguments in COMMAND in DIR and return its
+     *  standard output.  Throws an exception if it fails. */
+    private static String output(File dir, String... command) {
+        ArrayList<String> line = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java")
+                    .toString(), "-cp", CLASSPATH));
+        line.addAll(Arrays.asList(command));
+        try {
+            Process process = new ProcessBuilder(line).directory(dir)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            String out = new String(process.getInputStream().readAllBytes(),
+                    StandardCharsets.UTF_8);
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException(String.join(" ", command)
+                        + " failed in " + dir);
+            }
+            return out;
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Return the medians recorded in the CSV file BASELINE, keyed by
+     *  scenario and command, or an empty map if BASELINE is null. */
+    static HashMap<String, Double> readBaseline(File baseline)
+            throws IOException {
+        HashMap<String, Double> result = new HashMap<>();
+        if (baseline == null) {
+            return result;
+        }
+        List<String> lines = Files.readAllLines(baseline.toPath());
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            result.put(fields[0] + "," + fields[3],
+                    Double.parseDouble(fields[5]));
+        }
+        return result;
+    }
+
+    /** Return RESULTS as the lines of a CSV file. */
+    static List<String> toCsv(List<Result> results) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        for (Result r : results) {
+            lines.add(String.format("%s,%d,%d,%s,%d,%.1f,%.1f,%.1f,%s,%s",
+                    r.scenario, r.files, r.commits, r.command, r.times.size(),
+                    r.median(), r.min(), r.max(), number(r.baseline),
+                    number(r.change())));
+        }
+        return lines;
+    }
+
+    /** Return RESULTS as a JSON array. */
+    static String toJson(List<Result> results) {
+        return results.stream().map(r -> String.format(
+                "  {\"scenario\": \"%s\", \"files\": %d, \"commits\": %d, "
+                + "\"command\": \"%s\", \"times_ms\": %s, \"median_ms\": %.1f, "
+                + "\"baseline_ms\": %s, \"change_pct\": %s}",
+                r.scenario, r.files, r.commits, r.command,
+                r.times.stream().map(t -> String.format("%.1f", t))
+                    .collect(Collectors.joining(", ", "[", "]")),
+                r.median(), json(r.baseline), json(r.change())))
+            .collect(Collectors.joining(",\n", "[\n", "\n]\n"));
+    }
+
+    /** Return X formatted for CSV, empty if it is not a number. */
+    private static String number(double x) {
+        return Double.isNaN(x) ? "" : String.format("%.1f", x);
+    }
+
+    /** Return X formatted for JSON, null if it is not a number. */
+    private static String json(double x) {
+        return Double.isNaN(x) ? "null" : String.format("%.1f", x);
+    }
+
+    /** Copy the directory tree FROM to TO. */
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.copy(path, to.resolve(from.relativize(path)),
+                        StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    /** Delete the directory tree DIR, if it exists. */
+    private static void deleteTree(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : (Iterable<Path>) paths
+                     .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /** The timings of one command in one scenario. */
+    static class Result {
+        /** A result for COMMAND in SCENARIO, of FILES files and COMMITS
+         *  commits. */
+        Result(String scenario, int files, int commits, String command) {
+            this.scenario = scenario;
+            this.files = files;
+            this.commits = commits;
+            this.command = command;
+        }
+
+        /** Record a run that took TIME milliseconds. */
+        void add(double time) {
+            times.add(time);
+        }
+
+        /** Return the key of this result in a baseline. */
+        String key() {
+            return scenario + "," + command;
+        }
+
+        /** Return the median time. */
+        double median() {
+            List<Double> sorted = times.stream().sorted()
+                .collect(Collectors.toList());
+            int n = sorted.size();
+            return n % 2 == 1 ? sorted.get(n / 2)
+                : (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2;
+        }
+
+        /** Return the shortest time. */
+        double min() {
+            return times.stream().mapToDouble(t -> t).min().orElse(0);
+        }
+
+        /** Return the longest time. */
+        double max() {
+            return times.stream().mapToDouble(t -> t).max().orElse(0);
+        }
+
+        /** Return the change of the median from the baseline, in percent,
+         *  or NaN if there is no baseline. */
+        double change() {
+            return 100 * (median() - baseline) / baseline;
+        }
+
+        /** Scenario and command measured. */
+        final String scenario, command;
+        /** Size of the scenario. */
+        final int files, commits;
+        /** Times of the runs, in milliseconds. */
+        final ArrayList<Double> times = new ArrayList<>();
+        /** Median of the baseline run, or NaN if none. */
+        double baseline = Double.NaN;
+    }
+
+    /** Absolute class path given to the gitlet processes. */
+    private static final String CLASSPATH = Arrays.stream(
+            System.getProperty("java.class.path").split(File.pathSeparator))
+        .map(entry -> new File(entry).getAbsolutePath())
+        .collect(Collectors.joining(File.pathSeparator));
+
+    /** Name of the scenario. */
+    private final String _name;
+    /** Generator parameters. */
+    private final int _files, _commits, _branches, _mergeEvery;
+    /** Directories of the benchmarked repository and its remote. */
+    private final File _local, _remote;
+    /** Number of times each command is run. */
+    private final int _reps;
+}
@@ -0,0 +1,42 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Utils.sha1 on byte arrays from 1 KB to 1 GB.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class Sha1Benchmark {
+
+    /** Number of bytes hashed. */
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public int size;
+
+    /** Contents being hashed. */
+    private byte[] contents;
+
+    @Setup
+    public void setup() {
+        contents = new byte[size];
+        new Random(size).nextBytes(contents);
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(contents);
+    }
+}
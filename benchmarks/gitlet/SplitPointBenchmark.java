@@ -0,0 +1,70 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of GitletRepo.findSplitPoint on synthetic histories: two
+ *  branches of DEPTH commits each forked from a linear trunk, where in
+ *  the merge-heavy shape every commit of the current branch merges in a
+ *  side commit that also forked from the trunk.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class SplitPointBenchmark {
+
+    /** Shape of the history. */
+    @Param({"linear", "merges"})
+    public String shape;
+
+    /** Number of commits on each branch. */
+    @Param({"8", "16", "32"})
+    public int depth;
+
+    /** The repository holding the history. */
+    private GitletRepo repo;
+    /** The tips whose split point is found. */
+    private Commit current, given;
+
+    @Setup
+    public void setup() throws IOException {
+        repo = BenchRepos.init();
+        TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        Commit trunk = repo.currentCommit();
+        for (int i = 0; i < depth; i += 1) {
+            trunk = BenchRepos.writeCommit(trunk.getHash(), null,
+                    "trunk " + i, blobs);
+        }
+        current = trunk;
+        given = trunk;
+        for (int i = 0; i < depth; i += 1) {
+            String side = null;
+            if (shape.equals("merges")) {
+                side = BenchRepos.writeCommit(trunk.getHash(), null,
+                        "side " + i, blobs).getHash();
+            }
+            current = BenchRepos.writeCommit(current.getHash(), side,
+                    "current " + i, blobs);
+            given = BenchRepos.writeCommit(given.getHash(), null,
+                    "given " + i, blobs);
+        }
+    }
+
+    @Benchmark
+    public String findSplitPoint() {
+        return repo.findSplitPoint(current, given);
+    }
+}
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks of GitletRepo.status on a checked-out tree of FILES files,
+ *  one in ten of which has been modified.
+ *  @author Arvind Vivekanandan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class StatusBenchmark {
+
+    /** Number of files in the working tree. */
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    /** The repository being examined. */
+    private GitletRepo repo;
+    /** The standard output replaced while STATUS runs. */
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        repo = BenchRepos.init();
+        TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            blobs.put("file" + i + ".txt",
+                    BenchRepos.writeBlob(("contents " + i + "\n").getBytes()));
+        }
+        Commit commit = BenchRepos.writeCommit(repo.currentCommit().getHash(),
+                null, "tree", blobs);
+        repo.reset(commit.getHash());
+        for (int i = 0; i < files; i += 10) {
+            Utils.writeContents(Utils.join(GitletRepo.CWD,
+                    "file" + i + ".txt"), "modified\n");
+        }
+        repo = new GitletRepo();
+        out = BenchRepos.silence();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void status() {
+        repo.status();
+    }
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/** A side table holding, for each commit, its first parent and a Bloom
+ *  filter of the paths it changed relative to that parent.  A history walk
+ *  limited to one path can follow parents through this table alone, and
+ *  skip every commit whose filter rules the path out without reading the
+ *  commit or its parent.
+ *  @author Arvind Vivekanandan
+ */
+class ChangedPathFilters implements Serializable {
+
+    /** Number of bit positions set for each path. */
+    static final int NUM_HASHES = 7;
+    /** Number of filter bits per changed path. */
+    static final int BITS_PER_PATH = 10;
+    /** Commits changing more paths than this get no filter, meaning any
+     *  path may have changed. */
+    static final int MAX_PATHS = 512;
+
+    /** Return the table stored in FILE, or an empty one if none has been
+     *  written. */
+    static ChangedPathFilters load(File file) {
+        if (!file.exists()) {
+            return new ChangedPathFilters();
+        }
+        return Utils.readObject(file, ChangedPathFilters.class);
+    }
+
+    /** Write this table to FILE. */
+    void save(File file) {
+        Utils.writeObject(file, this);
+    }
+
+    /** Return true iff COMMITHASH has an entry. */
+    boolean contains(String commitHash) {
+        return _parents.containsKey(commitHash);
+    }
+
+    /** Return the first parent recorded for COMMITHASH, or null if it has
+     *  none. */
+    String parent(String commitHash) {
+        return _parents.get(commitHash);
+    }
+
+    /** Record that COMMITHASH, whose first parent is PARENTHASH (null for
+     *  none), changed the paths in CHANGED. */
+    void add(String commitHash, String parentHash,
+             Collection<String> changed) {
+        _parents.put(commitHash, parentHash);
+        if (changed.size() > MAX_PATHS) {
+            _filters.put(commitHash, null);
+            return;
+        }
+        long[] bits = new long[Math.max(1,
+                (changed.size() * BITS_PER_PATH + 63) / 64)];
+        for (String path : changed) {
+            for (int i = 0; i < NUM_HASHES; i += 1) {
+                int bit = position(path, i, bits.length * 64);
+                bits[bit / 64] |= 1L << (bit % 64);
+            }
+        }
+        _filters.put(commitHash, bits);
+    }
+
+    /** Remove the entries of the commits for which GONE is true. Return
+     *  true iff any was removed. */
+    boolean removeIf(Predicate<String> gone) {
+        _filters.keySet().removeIf(gone);
+        return _parents.keySet().removeIf(gone);
+    }
+
+    /** Return false if COMMITHASH certainly did not change PATH; true if
+     *  it may have. */
+    boolean mightHaveChanged(String commitHash, String path) {
+        long[] bits = _filters.get(commitHash);
+        if (bits == null) {
+            return true;
+        }
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            int bit = position(path, i, bits.length * 64);
+            if ((bits[bit / 64] & (1L << (bit % 64))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the bit for hash function I of PATH in a filter of SIZE
+     *  bits, by double hashing. */
+    private static int position(String path, int i, int size) {
+        int h1 = path.hashCode();
+        int h2 = Integer.rotateLeft(h1 * 0x9E3779B9, 16) * 0x85EBCA6B | 1;
+        return Math.floorMod(h1 + i * h2, size);
+    }
+
+    /** First parent of each recorded commit. */
+    private HashMap<String, String> _parents = new HashMap<>();
+    /** Bloom filter of changed paths of each recorded commit, or null if
+     *  it changed too many paths to filter. */
+    private HashMap<String, long[]> _filters = new HashMap<>();
+}
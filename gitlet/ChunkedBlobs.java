@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+/** The storage of large blobs as content-defined chunks, so that the
+ *  versions of a large file share the chunks they have in common.
+ *
+ *  A blob shorter than THRESHOLD is stored whole in its file in a blobs
+ *  folder.  A longer one is cut into chunks, each of which is stored
+ *  under its SHA-1 hash in the folder CHUNKS_NAME beside the blobs folder
+ *  unless it is there already, and the blob's file holds a manifest
+ *  instead: MAGIC followed by the hash of each chunk, in order, one per
+ *  line.  Blobs are still named by the hash of their whole contents, so
+ *  only the code reading blob files sees the difference, and it reads
+ *  them through open, which streams the chunks of a manifest one after
+ *  another.  A blob whose contents begin with MAGIC is always chunked, so
+ *  that no whole blob is taken for a manifest.
+ *
+ *  Chunks are cut by FastCDC.  A gear hash is rolled over the bytes of a
+ *  chunk after its first MIN_CHUNK, and the chunk ends where the hash's
+ *  high bits are all zero, testing more bits before AVG_CHUNK bytes than
+ *  after it so that sizes cluster around AVG_CHUNK, or at MAX_CHUNK
+ *  bytes.  As a cut depends only on the bytes just before it, an edit
+ *  changes only the chunks around it, and storing or transferring a new
+ *  version of a file costs about the bytes changed rather than its size.
+ *  The gear table is fixed, so all repositories cut alike.
+ *
+ *  Chunking is optional, and off unless the environment variable
+ *  CHUNKING_VARIABLE is 1, since it trades a file per blob for a file
+ *  per chunk plus a manifest, which pays only for large files that
+ *  change in small places.  Blobs are read alike either way, so turning
+ *  it on or off, or exchanging blobs with a repository that has it
+ *  otherwise, needs no conversion.
+ *  @author Arvind Vivekanandan
+ */
+class ChunkedBlobs {
+
+    /** Name of the folder of chunks in a .gitlet folder. */
+    static final String CHUNKS_NAME = "chunks";
+    /** Size in bytes from which blobs are chunked. */
+    static final long THRESHOLD = 256 * 1024;
+    /** Size below which no chunk is cut, except at the end. */
+    static final int MIN_CHUNK = 16 * 1024;
+    /** Size around which chunks are cut. */
+    static final int AVG_CHUNK = 64 * 1024;
+    /** Size at which a chunk is cut regardless of its contents. */
+    static final int MAX_CHUNK = 256 * 1024;
+    /** The first line of a manifest.  The NUL keeps it from being
+     *  mistaken for the start of a text file. */
+    static final String MAGIC = "\0gitlet chunked blob\n";
+    /** The environment variable turning chunking on. */
+    static final String CHUNKING_VARIABLE = "GITLET_CHUNKING";
+    /** True iff long blobs are stored chunked. */
+    static final boolean ENABLED =
+        "1".equals(System.getenv(CHUNKING_VARIABLE));
+
+    /** Store the contents of the file SOURCE as the blob file BLOB,
+     *  chunked if it is to be as for shouldChunk. */
+    static void store(File source, File blob) throws IOException {
+        if (!shouldChunk(source)) {
+            Utils.writeContents(blob, Utils.readContents(source));
+            return;
+        }
+        File chunks = chunksFolder(blob);
+        chunks.mkdir();
+        StringBuilder manifest = new StringBuilder(MAGIC);
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            byte[] buffer = new byte[MAX_CHUNK];
+            int length = 0;
+            while (true) {
+                length += in.readNBytes(buffer, length, MAX_CHUNK - length);
+                if (length == 0) {
+                    break;
+                }
+                int cut = cutPoint(buffer, length);
+                byte[] chunk = Arrays.copyOf(buffer, cut);
+                String hash = Utils.sha1(chunk);
+                File chunkFile = Utils.join(chunks, hash);
+                if (!ObjectFilter.exists(chunkFile)) {
+                    Utils.writeContents(chunkFile, chunk);
+                }
+                manifest.append(hash).append('\n');
+                System.arraycopy(buffer, cut, buffer, 0, length - cut);
+                length -= cut;
+            }
+        }
+        Utils.writeContents(blob, manifest.toString());
+    }
+
+    /** Return true iff the file SOURCE is to be stored chunked: if it
+     *  is long and chunking is on, or if it begins with MAGIC. */
+    static boolean shouldChunk(File source) throws IOException {
+        return (ENABLED && source.length() >= THRESHOLD)
+            || isManifest(source);
+    }
+
+    /** Return a stream of the contents of the blob file BLOB, reading
+     *  its chunks as they are needed if it is chunked. */
+    static InputStream open(File blob) throws IOException {
+        if (!isManifest(blob)) {
+            return Files.newInputStream(blob.toPath());
+        }
+        File chunks = chunksFolder(blob);
+        Iterator<String> hashes = chunks(blob).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return hashes.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(
+                            Utils.join(chunks, hashes.next()).toPath());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Return the lines of the blob file BLOB, as for
+     *  Files.readAllLines, except that a blob that is not valid UTF-8 is
+     *  read as ISO-8859-1, one character per byte, rather than refused. */
+    static List<String> readAllLines(File blob) throws IOException {
+        try {
+            return readAllLines(blob, StandardCharsets.UTF_8);
+        } catch (CharacterCodingException excp) {
+            return readAllLines(blob, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /** Return the lines of the blob file BLOB decoded strictly from
+     *  CHARSET, throwing CharacterCodingException if it is not in CHARSET,
+     *  as Files.readAllLines does. */
+    static List<String> readAllLines(File blob, Charset charset)
+            throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                open(blob), charset.newDecoder()))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /** Return the lines of the blob file BLOB, each with its terminating
+     *  newline (and carriage return, if any) as in the file, so that
+     *  joining them gives back its bytes.  Return null if BLOB is not
+     *  text: if it holds a NUL byte or is not valid UTF-8. */
+    static List<String> readTextLines(File blob) throws IOException {
+        try (InputStream in = open(blob)) {
+            return textLines(in.readAllBytes());
+        }
+    }
+
+    /** Return the lines of CONTENTS as for readTextLines, or null if
+     *  CONTENTS is not text. */
+    static List<String> textLines(byte[] contents) {
+        for (byte b : contents) {
+            if (b == 0) {
+                return null;
+            }
+        }
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder()
+                .decode(ByteBuffer.wrap(contents)).toString();
+        } catch (CharacterCodingException excp) {
+            return null;
+        }
+        ArrayList<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int end = text.indexOf('\n'); end >= 0;
+             end = text.indexOf('\n', start)) {
+            lines.add(text.substring(start, end + 1));
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    /** Return the hashes of the chunks of the blob file BLOB, which are
+     *  none if it is not chunked. */
+    static List<String> chunks(File blob) {
+        try {
+            if (!isManifest(blob)) {
+                return new ArrayList<>();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return chunks(Utils.readContents(blob));
+    }
+
+    /** Copy the blob file FROM to the blob file TO of another repository,
+     *  after those of its chunks that TO's repository lacks.  Return the
+     *  number of bytes copied. */
+    static long copy(File from, File to) {
+        byte[] contents = Utils.readContents(from);
+        long copied = contents.length;
+        List<String> hashes = chunks(contents);
+        if (!hashes.isEmpty()) {
+            File source = chunksFolder(from);
+            File target = chunksFolder(to);
+            target.mkdir();
+            for (String hash : hashes) {
+                File chunkFile = Utils.join(target, hash);
+                if (!ObjectFilter.exists(chunkFile)) {
+                    byte[] chunk = Utils.readContents(
+                            Utils.join(source, hash));
+                    Utils.writeContents(chunkFile, chunk);
+                    copied += chunk.length;
+                }
+            }
+        }
+        Utils.writeContents(to, contents);
+        return copied;
+    }
+
+    /** Return the length of the first chunk of the LENGTH bytes of DATA,
+     *  which are all that remain of a blob if LENGTH < MAX_CHUNK. */
+    static int cutPoint(byte[] data, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int normal = Math.min(AVG_CHUNK, length);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /** Return true iff the file FILE begins with MAGIC. */
+    private static boolean isManifest(File file) throws IOException {
+        if (file.length() < MAGIC_BYTES.length) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return Arrays.equals(in.readNBytes(MAGIC_BYTES.length),
+                    MAGIC_BYTES);
+        }
+    }
+
+    /** Return the hashes of the chunks listed by the blob contents
+     *  CONTENTS, which are none if they are not a manifest. */
+    private static List<String> chunks(byte[] contents) {
+        ArrayList<String> result = new ArrayList<>();
+        if (contents.length < MAGIC_BYTES.length
+            || !Arrays.equals(contents, 0, MAGIC_BYTES.length,
+                    MAGIC_BYTES, 0, MAGIC_BYTES.length)) {
+            return result;
+        }
+        String lines = new String(contents, MAGIC_BYTES.length,
+                contents.length - MAGIC_BYTES.length, StandardCharsets.UTF_8);
+        for (String line : lines.split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /** Return the folder of chunks beside the folder of the blob file
+     *  BLOB. */
+    private static File chunksFolder(File blob) {
+        return Utils.join(blob.getAbsoluteFile().getParentFile()
+                .getParentFile(), CHUNKS_NAME);
+    }
+
+    /** MAGIC as bytes. */
+    private static final byte[] MAGIC_BYTES =
+        MAGIC.getBytes(StandardCharsets.UTF_8);
+    /** The bits of the gear hash that must be zero for a cut before
+     *  AVG_CHUNK: two more than log2(AVG_CHUNK). */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** The bits that must be zero for a cut after AVG_CHUNK: two
+     *  fewer. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** A random value for each byte, from a SplitMix64 generator with a
+     *  fixed seed. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x676974_6c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+}
@@ -1,11 +1,27 @@
 package gitlet;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.TreeMap;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 
+/** A commit.  Its file holds only its header: parents, message, time
+ *  stamp and the hash of its manifest, the map of the files it tracks to
+ *  their blob hashes, which is stored under that hash in the folder
+ *  MANIFESTS_NAME beside the commits folder.  Walking
+ *  history therefore reads a few hundred bytes per commit however many
+ *  files are tracked, and the manifest is read only when getBlobs is
+ *  first called.  A commit is still named by the hash of its file, which
+ *  covers its files through the manifest hash.
+ *  @author Arvind Vivekanandan
+ */
 public class Commit implements Serializable {
+    /** Name of the folder of manifests in a .gitlet folder. */
+    static final String MANIFESTS_NAME = "manifests";
+
     /** Hash value of this commit. */
     private String hash;
     /** Hash value of parent 1 commit. */
@@ -18,15 +34,44 @@ public class Commit implements Serializable {
     private String commitMessage;
     /** Time stamp of this commit when created. */
     private String timeStamp;
+    /** Hash of the manifest. */
+    private ObjectId manifest;
     /** Values of files tracked and their 'blob' value or file
-     * contents at time of commit. */
-    private TreeMap<String, String> blobs;
+     * contents at time of commit, read when first needed. */
+    private transient TreeMap<String, ObjectId> blobs;
+    /** The manifest serialized, if this commit was made in this
+     *  process. */
+    private transient byte[] manifestContents;
+    /** Folder the manifest is read from. */
+    private transient File manifestsFolder;
+
+    /** Return the commit stored as FILE, a file in a commits folder,
+     *  reading it from the commit pack beside that folder if it is there.
+     *  Throws IllegalArgumentException in case of problems. */
+    static Commit read(File file) {
+        InputStream packed = CommitPack.open(file);
+        Commit result;
+        if (packed == null) {
+            result = Utils.readObject(file, Commit.class);
+        } else {
+            try {
+                result = Utils.readObject(packed, file, packed.available(),
+                        Commit.class);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        result.setSource(file);
+        return result;
+    }
 
     public Commit(String pHash, String cMessage, TreeMap<String,
-            String> blobSet) {
+            ObjectId> blobSet) {
         this.parentHash = pHash;
         this.commitMessage = cMessage;
         this.blobs = blobSet;
+        this.manifestContents = Utils.serialize(blobSet);
+        this.manifest = Utils.sha1Id(manifestContents);
         Date date = new Date();
         this.timeStamp =
                 new SimpleDateFormat("E MMM d HH:mm:ss YYYY Z")
@@ -65,10 +110,35 @@ public class Commit implements Serializable {
         return this.timeStamp;
     }
 
-    public TreeMap<String, String> getBlobs() {
+    @SuppressWarnings("unchecked")
+    public TreeMap<String, ObjectId> getBlobs() {
+        if (this.blobs == null) {
+            this.blobs = Utils.readObject(Utils.join(manifestsFolder,
+                    manifest.toString()), TreeMap.class);
+        }
         return this.blobs;
     }
 
+    /** Return the hash of the manifest. */
+    public ObjectId getManifest() {
+        return this.manifest;
+    }
+
+    /** Return the contents of the manifest's file. */
+    public byte[] getManifestContents() {
+        if (this.manifestContents == null) {
+            return Utils.serialize(getBlobs());
+        }
+        return this.manifestContents;
+    }
+
+    /** Note that this commit was read from FILE, so that its manifest is
+     *  in the manifests folder beside FILE's folder. */
+    private void setSource(File file) {
+        this.manifestsFolder = Utils.join(file.getAbsoluteFile()
+                .getParentFile().getParentFile(), MANIFESTS_NAME);
+    }
+
     public String getLogFormat() {
         String headerLine;
         String commitLine;
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A pack of the commits of one .gitlet folder, written by repack, from
+ *  which Commit.read reads commits instead of their loose files.
+ *
+ *  The pack is the file PACK_NAME in the .gitlet folder.  It begins with
+ *  an index: MAGIC, the number of commits N, a fan-out table giving for
+ *  each value of a first byte the number of commits whose hash begins
+ *  with at most that byte, the N hashes as 20 bytes each in order, and
+ *  the offset and length of each commit.  The serialized commits follow.
+ *  The loose files are kept, so that nothing listing or copying commits
+ *  need know of the pack, and a commit not in it is read loose.
+ *
+ *  A pack is mapped into memory once per process, and a commit is read
+ *  by a binary search of the mapped index within the range the fan-out
+ *  gives, and deserialized straight from a slice of the mapped file,
+ *  without opening a file or copying its contents.  If the pack cannot
+ *  be mapped it is read into the heap instead, and if it cannot be read
+ *  at all, or is not a pack, commits are read loose.
+ *  @author Arvind Vivekanandan
+ */
+class CommitPack {
+
+    /** Name of the pack in a .gitlet folder. */
+    static final String PACK_NAME = "commits.pack";
+    /** The first four bytes of a pack. */
+    static final int MAGIC = 0x47504b31;
+    /** Length in bytes of a commit hash. */
+    static final int HASH_BYTES = ObjectId.BYTES;
+
+    /** Return a stream of the contents of FILE, a commit file in a
+     *  commits folder, from the pack beside it, or null if it is not in
+     *  a pack. */
+    static InputStream open(File file) {
+        File folder = file.getParentFile();
+        if (folder == null || !folder.getName().equals("commits")) {
+            return null;
+        }
+        CommitPack pack = PACKS.computeIfAbsent(folder.getPath(),
+            k -> load(Utils.join(folder.getParentFile(), PACK_NAME)));
+        return pack == NONE ? null : pack.find(file.getName());
+    }
+
+    /** Write a pack of the commits HASHES in the folder COMMITFOLDER, in
+     *  the .gitlet folder holding it, and use it from now on in this
+     *  process. */
+    static void write(File commitFolder, String[] hashes) {
+        hashes = Arrays.stream(hashes).filter(h -> toBytes(h) != null)
+            .sorted().toArray(String[]::new);
+        File root = commitFolder.getParentFile();
+        int header = 8 + 256 * 4 + hashes.length * (HASH_BYTES + 12);
+        long[] offsets = new long[hashes.length];
+        int[] lengths = new int[hashes.length];
+        int[] fanout = new int[256];
+        try {
+            Path data = Journal.temp(root.toPath());
+            long offset = header;
+            try (BufferedOutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(data))) {
+                for (int i = 0; i < hashes.length; i += 1) {
+                    byte[] contents = Files.readAllBytes(
+                            Utils.join(commitFolder, hashes[i]).toPath());
+                    out.write(contents);
+                    offsets[i] = offset;
+                    lengths[i] = contents.length;
+                    offset += contents.length;
+                    fanout[Integer.parseInt(hashes[i].substring(0, 2), 16)]
+                        += 1;
+                }
+            }
+            Path pack = Journal.temp(root.toPath());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(pack)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(hashes.length);
+                int total = 0;
+                for (int count : fanout) {
+                    total += count;
+                    out.writeInt(total);
+                }
+                for (String hash : hashes) {
+                    out.write(toBytes(hash));
+                }
+                for (int i = 0; i < hashes.length; i += 1) {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                }
+                Files.copy(data, out);
+            }
+            Files.delete(data);
+            File packFile = Utils.join(root, PACK_NAME);
+            Journal.move(pack.toFile(), packFile);
+            PACKS.put(commitFolder.getPath(), load(packFile));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the pack in FILE, or NONE if there is no pack there. */
+    private static CommitPack load(File file) {
+        if (!file.isFile()) {
+            return NONE;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException | IllegalArgumentException
+                 | UnsupportedOperationException excp) {
+            try {
+                buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            } catch (IOException | OutOfMemoryError excp2) {
+                return NONE;
+            }
+        }
+        if (buffer.capacity() < 8 + 256 * 4 || buffer.getInt(0) != MAGIC) {
+            return NONE;
+        }
+        int count = buffer.getInt(4);
+        if (count < 0 || buffer.capacity()
+            < 8 + 256 * 4 + (long) count * (HASH_BYTES + 12)) {
+            return NONE;
+        }
+        return new CommitPack(buffer, count);
+    }
+
+    /** The pack in BUFFER, holding COUNT commits. */
+    private CommitPack(ByteBuffer buffer, int count) {
+        _buffer = buffer;
+        _hashes = 8 + 256 * 4;
+        _entries = _hashes + count * HASH_BYTES;
+    }
+
+    /** Return a stream of the contents of the commit HASH, or null if it
+     *  is not in this pack. */
+    private InputStream find(String hash) {
+        byte[] key = toBytes(hash);
+        if (key == null) {
+            return null;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : _buffer.getInt(8 + (first - 1) * 4);
+        int hi = _buffer.getInt(8 + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(key, _hashes + mid * HASH_BYTES);
+            if (cmp == 0) {
+                int entry = _entries + mid * 12;
+                long offset = _buffer.getLong(entry);
+                int length = _buffer.getInt(entry + 8);
+                if (offset + length > _buffer.capacity()) {
+                    return null;
+                }
+                return new BufferInputStream(
+                        _buffer.slice((int) offset, length));
+            } else if (cmp < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return null;
+    }
+
+    /** Return the comparison of KEY with the hash at POSITION in the
+     *  pack, as unsigned bytes. */
+    private int compare(byte[] key, int position) {
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            int cmp = Integer.compare(key[i] & 0xff,
+                    _buffer.get(position + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the bytes of the hexadecimal hash HASH, or null if it is
+     *  not a full hash. */
+    private static byte[] toBytes(String hash) {
+        ObjectId id = ObjectId.fromHex(hash);
+        return id == null ? null : id.toBytes();
+    }
+
+    /** A stream of the bytes remaining in a buffer. */
+    private static class BufferInputStream extends InputStream {
+
+        /** A stream of the remaining bytes of BUFFER, which it consumes. */
+        BufferInputStream(ByteBuffer buffer) {
+            _in = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _in.hasRemaining() ? _in.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!_in.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, _in.remaining());
+            _in.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return _in.remaining();
+        }
+
+        /** The buffer read. */
+        private final ByteBuffer _in;
+    }
+
+    /** Marks a commits folder without a usable pack. */
+    private static final CommitPack NONE = new CommitPack(null, 0);
+    /** The pack of each commits folder, by its path. */
+    private static final ConcurrentHashMap<String, CommitPack> PACKS =
+        new ConcurrentHashMap<>();
+
+    /** The contents of the pack. */
+    private final ByteBuffer _buffer;
+    /** Position of the first hash. */
+    private final int _hashes;
+    /** Position of the first offset and length. */
+    private final int _entries;
+}
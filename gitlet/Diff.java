@@ -2,23 +2,23 @@ package gitlet;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
-
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
- *  next.
+ *  next.  Lines are numbered so that they compare as ints, and common
+ *  subsequences are found with Myers' O(ND) algorithm in linear space, so
+ *  large files can be compared in bounded memory.
  *  @author P. N. Hilfinger */
 public class Diff {
 
@@ -27,8 +27,8 @@ public class Diff {
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _matches = null;
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +48,8 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _matches = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,66 +76,24 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
         if (k1 == 0 || k2 == 0
             || k1 > _lines1.size() || k2 > _lines2.size()) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
+        } else if (k1 == _lines1.size() && k2 == _lines2.size()) {
+            return lls();
         }
-        return _lls[k1][k2];
+        intern();
+        IntList matches = new IntList();
+        match(0, k1, 0, k2, matches);
+        return matches.size() / 2;
     }
 
     /** Return the length of the longest common subsequence of the current
      *  data subsequences. */
     public int lls() {
         checkData();
-        return lls(_lines1.size(), _lines2.size());
+        computeMatches();
+        return _matches.size() / 2;
     }
 
     /** Return true iff the sequences currently being compared have identical
@@ -145,7 +103,7 @@ public class Diff {
         if (_lines1.size() != _lines2.size()) {
             return false;
         }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        return lls() == _lines1.size();
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -166,30 +124,22 @@ public class Diff {
      *  first file (0-based), si2 is the starting position in the second
      *  file, and Li is the length of the subsequence. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
+        checkData();
+        computeMatches();
+        IntList result = new IntList();
+        for (int k = 0; k < _matches.size(); k += 2) {
+            int i1 = _matches.get(k), i2 = _matches.get(k + 1);
+            int n = result.size();
+            if (n > 0 && result.get(n - 3) + result.get(n - 1) == i1
+                && result.get(n - 2) + result.get(n - 1) == i2) {
+                result.set(n - 1, result.get(n - 1) + 1);
             } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
+                result.add(i1);
+                result.add(i2);
+                result.add(1);
             }
         }
-        return toIntArr(resultList);
+        return result.toArray();
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -232,45 +182,188 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Number each distinct line of the current sequences, so that lines
+     *  are compared as ints rather than Strings. */
+    private void intern() {
+        if (_ids1 != null) {
+            return;
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        _ids1 = new int[_lines1.size()];
+        _ids2 = new int[_lines2.size()];
+        for (int i = 0; i < _ids1.length; i += 1) {
+            _ids1[i] = ids.computeIfAbsent(_lines1.get(i), k -> ids.size());
+        }
+        for (int i = 0; i < _ids2.length; i += 1) {
+            _ids2[i] = ids.computeIfAbsent(_lines2.get(i), k -> ids.size());
+        }
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Compute the matched line pairs of a longest common subsequence of the
+     *  full current sequences, if not already done. */
+    private void computeMatches() {
+        if (_matches == null) {
+            intern();
+            _matches = new IntList();
+            match(0, _ids1.length, 0, _ids2.length, _matches);
+        }
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Append to RESULT, in order, the pairs i1, i2 of positions of matched
+     *  lines in a longest common subsequence of lines [LO1 .. HI1 - 1] of
+     *  the first sequence and [LO2 .. HI2 - 1] of the second.  Uses Myers'
+     *  O(ND) algorithm, recursing on the middle snake so that only linear
+     *  space is needed. */
+    private void match(int lo1, int hi1, int lo2, int hi2, IntList result) {
+        while (lo1 < hi1 && lo2 < hi2 && _ids1[lo1] == _ids2[lo2]) {
+            result.add(lo1);
+            result.add(lo2);
+            lo1 += 1; lo2 += 1;
+        }
+        int suffix;
+        suffix = 0;
+        while (lo1 < hi1 - suffix && lo2 < hi2 - suffix
+               && _ids1[hi1 - suffix - 1] == _ids2[hi2 - suffix - 1]) {
+            suffix += 1;
+        }
+        if (lo1 < hi1 - suffix && lo2 < hi2 - suffix) {
+            int[] split = middleSnake(lo1, hi1 - suffix, lo2, hi2 - suffix);
+            if (split != null) {
+                match(lo1, split[0], lo2, split[1], result);
+                match(split[0], hi1 - suffix, split[1], hi2 - suffix, result);
+            }
+        }
+        for (int k = suffix; k > 0; k -= 1) {
+            result.add(hi1 - k);
+            result.add(hi2 - k);
+        }
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Return the point {x, y} at which a shortest edit script between lines
+     *  [LO1 .. HI1 - 1] and [LO2 .. HI2 - 1] is split by its middle snake,
+     *  found by running the forward and reverse searches until they meet.
+     *  Returns null if the ranges have no line in common. */
+    private int[] middleSnake(int lo1, int hi1, int lo2, int hi2) {
+        int n = hi1 - lo1, m = hi2 - lo2;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int[] v1 = new int[2 * maxD + 2], v2 = new int[2 * maxD + 2];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[offset + 1] = 0;
+        v2[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = delta % 2 != 0;
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d
+                    || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m
+                       && _ids1[lo1 + x1] == _ids2[lo2 + y1]) {
+                    x1 += 1; y1 += 1;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < v2.length
+                        && v2[k2Offset] != -1 && x1 >= n - v2[k2Offset]) {
+                        return new int[] { lo1 + x1, lo2 + y1 };
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d
+                    || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                       && _ids1[hi1 - x2 - 1] == _ids2[hi2 - y2 - 1]) {
+                    x2 += 1; y2 += 1;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < v1.length
+                        && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] { lo1 + x1, lo2 + y1 };
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** A growable list of ints, avoiding boxing on large inputs. */
+    private static class IntList {
+        /** Return the number of items. */
+        int size() {
+            return _size;
+        }
+
+        /** Return item K. */
+        int get(int k) {
+            return _data[k];
+        }
+
+        /** Set item K to X. */
+        void set(int k, int x) {
+            _data[k] = x;
+        }
+
+        /** Append X. */
+        void add(int x) {
+            if (_size == _data.length) {
+                _data = Arrays.copyOf(_data, 2 * _data.length);
+            }
+            _data[_size] = x;
+            _size += 1;
+        }
+
+        /** Return the items as an array. */
+        int[] toArray() {
+            return Arrays.copyOf(_data, _size);
+        }
+
+        /** The items, followed by unused space. */
+        private int[] _data = new int[16];
+        /** The number of items. */
+        private int _size;
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The lines of _lines1 and _lines2 numbered so that equal lines have
+     *  equal numbers, or null if not yet computed. */
+    private int[] _ids1, _ids2;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** Matched positions i1, i2 of a longest common subsequence of the
+     *  current sequences, or null if not calculated. */
+    private IntList _matches;
 
 }
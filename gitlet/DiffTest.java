@@ -0,0 +1,78 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Tests of the Diff class.
+ *  @author Arvind Vivekanandan
+ */
+public class DiffTest {
+
+    /** Return the result of applying the edits in D.diffs() to the first of
+     *  D's sequences. */
+    private List<String> applyDiffs(Diff d) {
+        int[] edits = d.diffs();
+        List<String> result = new ArrayList<>();
+        int next = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            result.addAll(d.sequence1().subList(next, edits[k]));
+            result.addAll(d.sequence2().subList(edits[k + 2],
+                    edits[k + 2] + edits[k + 3]));
+            next = edits[k] + edits[k + 1];
+        }
+        result.addAll(d.sequence1().subList(next, d.sequence1().size()));
+        return result;
+    }
+
+    @Test
+    public void testCommonSubsequence() {
+        Diff d = new Diff();
+        d.setSequences(Arrays.asList("a", "b", "c", "a", "b", "b", "a"),
+                Arrays.asList("c", "b", "a", "b", "a", "c"));
+        assertEquals(4, d.lls());
+        int[] common = d.commonSubsequence();
+        int total = 0;
+        for (int k = 0; k < common.length; k += 3) {
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                assertEquals(d.get1(common[k] + i), d.get2(common[k + 1] + i));
+            }
+            total += common[k + 2];
+        }
+        assertEquals(4, total);
+        assertEquals(d.sequence2(), applyDiffs(d));
+    }
+
+    @Test
+    public void testDiffsEdgeCases() {
+        Diff d = new Diff();
+        d.setSequences(Arrays.asList("x", "y"), new ArrayList<>());
+        assertArrayEquals(new int[] {0, 2, 0, 0}, d.diffs());
+        d.setSequences(Arrays.asList("x", "y"), Arrays.asList("x", "y"));
+        assertTrue(d.sequencesEqual());
+        assertArrayEquals(new int[0], d.diffs());
+        d.setSequences(Arrays.asList("x", "y", "z"),
+                Arrays.asList("x", "q", "z"));
+        assertArrayEquals(new int[] {1, 1, 1, 1}, d.diffs());
+        assertEquals(1, d.lls(2, 2));
+    }
+
+    @Test
+    public void testLargeInput() {
+        List<String> lines1 = new ArrayList<>();
+        List<String> lines2 = new ArrayList<>();
+        for (int i = 0; i < 100000; i += 1) {
+            lines1.add("line " + i);
+            lines2.add(i % 1000 == 0 ? "changed " + i : "line " + i);
+        }
+        Diff d = new Diff();
+        d.setSequences(lines1, lines2);
+        assertEquals(99900, d.lls());
+        assertEquals(400, d.diffs().length);
+        assertEquals(lines2, applyDiffs(d));
+    }
+
+}
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Custom Java Flight Recorder events for gitlet's object store, commit
+ *  graph, merges, checkouts and remote transfers.  Every event carries
+ *  the id of the Command event of the gitlet command that emitted it, so
+ *  a recording can be grouped by command.  When no recording is running,
+ *  each event costs an allocation that the JIT removes and a test of
+ *  shouldCommit.
+ *  @author Arvind Vivekanandan
+ */
+class GitletEvents {
+
+    /** Id of the command running in this JVM. */
+    static final long COMMAND_ID = ThreadLocalRandom.current().nextLong();
+
+    /** The event for the running command, or null if there is none. */
+    private static Command command;
+
+    /** Begin the Command event for the command line ARGS.  It is
+     *  committed by commandFinished, or when the JVM exits if the command
+     *  ends with System.exit. */
+    static synchronized void commandStarted(String[] args) {
+        command = new Command();
+        command.begin();
+        command.name = args.length > 0 ? args[0] : "";
+        command.arguments = String.join(" ", args);
+        if (command.isEnabled()) {
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(GitletEvents::commandFinished));
+        }
+    }
+
+    /** Commit the Command event, if it has not been already. */
+    static synchronized void commandFinished() {
+        if (command != null) {
+            command.commandId = COMMAND_ID;
+            command.commit();
+            command = null;
+        }
+    }
+
+    /** Return the kind of object stored in FILE: "commit", "blob" or
+     *  "chunk" for files in a commits, blobs or chunks folder, and "file"
+     *  otherwise. */
+    static String kind(File file) {
+        File parent = file.getParentFile();
+        String folder = parent == null ? "" : parent.getName();
+        switch (folder) {
+        case "commits":
+            return "commit";
+        case "blobs":
+            return "blob";
+        case "chunks":
+            return "chunk";
+        case Commit.MANIFESTS_NAME:
+            return "manifest";
+        default:
+            return "file";
+        }
+    }
+
+    /** One gitlet command; the parent of every other event. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static class Command extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Command")
+        String name;
+        @Label("Arguments")
+        String arguments;
+    }
+
+    /** Fields shared by the object read and write events. */
+    abstract static class ObjectEvent extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Hash")
+        @Description("Object hash, or file name for working files")
+        String hash;
+        @Label("Kind")
+        String kind;
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        /** Commit this event, begun before FILE of SIZE bytes was read or
+         *  written, if it is being recorded. */
+        void end(File file, long size) {
+            if (shouldCommit()) {
+                this.commandId = COMMAND_ID;
+                this.hash = file.getName();
+                this.kind = kind(file);
+                this.size = size;
+                commit();
+            }
+        }
+    }
+
+    /** Reading a stored object or working file. */
+    @Name("gitlet.ObjectRead")
+    @Label("Object Read")
+    @Category({"Gitlet", "Object Store"})
+    static class ObjectRead extends ObjectEvent {
+    }
+
+    /** Writing a stored object or working file. */
+    @Name("gitlet.ObjectWrite")
+    @Label("Object Write")
+    @Category({"Gitlet", "Object Store"})
+    static class ObjectWrite extends ObjectEvent {
+    }
+
+    /** A walk over the commit graph. */
+    @Name("gitlet.GraphTraversal")
+    @Label("Commit Graph Traversal")
+    @Category({"Gitlet", "Commit Graph"})
+    static class GraphTraversal extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Purpose")
+        String purpose;
+        @Label("Start Commit")
+        String start;
+        @Label("Commits Visited")
+        long commits;
+
+        /** Commit this event for a walk for PURPOSE from START that
+         *  visited COMMITS commits, if it is being recorded. */
+        void end(String purpose, String start, long commits) {
+            if (shouldCommit()) {
+                this.commandId = COMMAND_ID;
+                this.purpose = purpose;
+                this.start = start;
+                this.commits = commits;
+                commit();
+            }
+        }
+    }
+
+    /** A merge of one commit into another. */
+    @Name("gitlet.Merge")
+    @Label("Merge")
+    @Category("Gitlet")
+    static class Merge extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Current Commit")
+        String current;
+        @Label("Given Commit")
+        String given;
+        @Label("Split Point")
+        String splitPoint;
+        @Label("Files")
+        @Description("Paths whose merge required an action")
+        long files;
+        @Label("Conflicts")
+        long conflicts;
+
+        /** Commit this event for the merge of GIVEN into CURRENT with
+         *  split point SPLITPOINT, which acted on FILES paths and found
+         *  CONFLICTS conflicts, if it is being recorded. */
+        void end(String current, String given, String splitPoint,
+                 long files, long conflicts) {
+            if (shouldCommit()) {
+                this.commandId = COMMAND_ID;
+                this.current = current;
+                this.given = given;
+                this.splitPoint = splitPoint;
+                this.files = files;
+                this.conflicts = conflicts;
+                commit();
+            }
+        }
+    }
+
+    /** Writing the files of a commit into the working directory. */
+    @Name("gitlet.Checkout")
+    @Label("Checkout Materialization")
+    @Category("Gitlet")
+    static class Checkout extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Commit")
+        String commitHash;
+        @Label("Files Written")
+        long files;
+
+        /** Commit this event for writing FILES files of COMMIT, if it is
+         *  being recorded. */
+        void end(String commit, long files) {
+            if (shouldCommit()) {
+                this.commandId = COMMAND_ID;
+                this.commitHash = commit;
+                this.files = files;
+                commit();
+            }
+        }
+    }
+
+    /** Copying objects to or from a remote. */
+    @Name("gitlet.RemoteTransfer")
+    @Label("Remote Transfer")
+    @Category("Gitlet")
+    static class RemoteTransfer extends Event {
+        @Label("Command Id")
+        long commandId;
+        @Label("Remote")
+        String remote;
+        @Label("Direction")
+        String direction;
+        @Label("Commits")
+        long commits;
+        @Label("Blobs")
+        long blobs;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Commit this event for a DIRECTION ("push" or "fetch") transfer
+         *  with REMOTE of COMMITS commits and BLOBS blobs totalling BYTES
+         *  bytes, if it is being recorded. */
+        void end(String remote, String direction, long commits, long blobs,
+                 long bytes) {
+            if (shouldCommit()) {
+                this.commandId = COMMAND_ID;
+                this.remote = remote;
+                this.direction = direction;
+                this.commits = commits;
+                this.blobs = blobs;
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+}
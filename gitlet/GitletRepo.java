@@ -1,12 +1,34 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class GitletRepo implements Serializable {
     /** Current working directory of repo. */
@@ -17,32 +39,63 @@ public class GitletRepo implements Serializable {
     static final File BLOBS_FOLDER = Utils.join(GITLET_FOLDER, "blobs");
     /** Commits folder in .gitlet folder. */
     static final File COMMIT_FOLDER = Utils.join(GITLET_FOLDER, "commits");
+    /** Chunks of large blobs in .gitlet folder. */
+    static final File CHUNKS_FOLDER =
+            Utils.join(GITLET_FOLDER, ChunkedBlobs.CHUNKS_NAME);
+    /** Manifests of commits in .gitlet folder. */
+    static final File MANIFESTS_FOLDER =
+            Utils.join(GITLET_FOLDER, Commit.MANIFESTS_NAME);
     /** Serialized file of this class, containing all information. */
     static final File GITLET_REPO_FILE
             = Utils.join(GITLET_FOLDER, "gitletRepo");
-    /** Branches with branchname and commit hash. */
-    private TreeMap<String, String> branches;
+    /** Shallow boundary commits, whose parents were never fetched. One
+     *  commit hash per line; absent when the history is complete. */
+    static final File SHALLOW_FILE = Utils.join(GITLET_FOLDER, "shallow");
+    /** Reachability bitmaps of selected commits, written by repack. */
+    static final File BITMAPS_FILE = Utils.join(GITLET_FOLDER, "bitmaps");
+    /** Cached similarity sketches of blobs, used to detect renames. */
+    static final File SKETCHES_FOLDER = Utils.join(GITLET_FOLDER, "sketches");
+    /** Cached blame results, one file per commit and path, named by the
+     *  commit's hash, a dot, and the hash of the path. */
+    static final File BLAME_FOLDER = Utils.join(GITLET_FOLDER, "blame");
+    /** First parents and changed-path Bloom filters of commits. */
+    static final File CHANGED_PATHS_FILE
+            = Utils.join(GITLET_FOLDER, "changed-paths");
+    /** Default age in seconds an unreachable object must reach before gc
+     *  removes it. */
+    static final long GC_GRACE_SECONDS = 14 * 24 * 60 * 60;
+    /** The hash in the staging area of a file staged for removal. */
+    static final ObjectId REMOVED = ObjectId.ZERO;
+    /** Branches with branchname and commit hash, stored in their own
+     *  files rather than in this one. */
+    private transient Refs branches;
     /** Current head of repo. */
     private String head = "master";
     /** Check if init was called. */
     private boolean initialized = false;
-    /** Staging area of files to add and remove. */
-    private TreeMap<String, String> stagingArea;
+    /** Staging area of files to add, with their blob hashes, and to
+     *  remove, with REMOVED. */
+    private TreeMap<String, ObjectId> stagingArea;
     /** Map of tree mappings to remote name and directory. */
     private TreeMap<String, String> remotes;
+    /** Shallow boundary commits, loaded lazily from SHALLOW_FILE. */
+    private transient TreeSet<String> shallowCommits;
+    /** The working tree, loaded lazily. */
+    private transient WorkingTree workingTree;
 
     public GitletRepo() {
         stagingArea = new TreeMap<>();
-        branches = new TreeMap<>();
+        branches = new Refs(GITLET_FOLDER);
         remotes = new TreeMap<>();
+        if (GITLET_FOLDER.exists()) {
+            Journal.recover(GITLET_FOLDER);
+        }
         if (GITLET_REPO_FILE.exists()) {
             this.head = Utils
                     .readObject(GITLET_REPO_FILE, GitletRepo.class).head;
             this.stagingArea
                     = Utils.readObject(GITLET_REPO_FILE, GitletRepo.class)
                     .stagingArea;
-            this.branches = Utils.readObject(GITLET_REPO_FILE, GitletRepo.class)
-                    .branches;
             remotes = Utils.readObject(GITLET_REPO_FILE, GitletRepo.class)
                     .remotes;
             initialized = true;
@@ -58,13 +111,12 @@ public class GitletRepo implements Serializable {
             GITLET_FOLDER.mkdir();
             BLOBS_FOLDER.mkdir();
             COMMIT_FOLDER.mkdir();
+            MANIFESTS_FOLDER.mkdir();
 
-            TreeMap<String, String> blobs = new TreeMap<>();
+            TreeMap<String, ObjectId> blobs = new TreeMap<>();
             Commit initialCommit
                     = new Commit(null, "initial commit", blobs);
-            File commit = Utils.join(COMMIT_FOLDER, initialCommit.getHash());
-            commit.createNewFile();
-            Utils.writeObject(commit, initialCommit);
+            writeCommit(initialCommit);
             this.branches.put("master", initialCommit.getHash());
 
             GITLET_REPO_FILE.createNewFile();
@@ -79,21 +131,22 @@ public class GitletRepo implements Serializable {
             System.out.println("File does not exist.");
             System.exit(0);
         } else {
-            String bHash = Utils.sha1(Utils.readContents(addFile));
-            String prevHash = currentCommit().getBlobs().get(fileName);
+            ObjectId bHash = Utils.sha1Id(addFile);
+            ObjectId prevHash = currentCommit().getBlobs().get(fileName);
             if (prevHash != null && bHash.equals(prevHash)) {
                 if (stagingArea.containsKey(fileName)
-                        && stagingArea.get(fileName).equals("")) {
+                        && stagingArea.get(fileName).equals(REMOVED)) {
                     stagingArea.remove(fileName);
                 }
             } else {
                 if (stagingArea.containsKey(fileName)
-                        && stagingArea.get(fileName).equals("")) {
+                        && stagingArea.get(fileName).equals(REMOVED)) {
                     stagingArea.remove(fileName);
                 }
-                File blobFile = Utils.join(BLOBS_FOLDER, bHash);
-                blobFile.createNewFile();
-                Utils.writeContents(blobFile, Utils.readContents(addFile));
+                File blobFile = blobFile(bHash);
+                if (!ObjectFilter.exists(blobFile)) {
+                    ChunkedBlobs.store(addFile, blobFile);
+                }
                 stagingArea.put(fileName, bHash);
             }
             Utils.writeObject(GITLET_REPO_FILE, this);
@@ -113,10 +166,10 @@ public class GitletRepo implements Serializable {
         Commit currentCommit = currentCommit();
         String parentHash = currentCommit.getHash();
         @SuppressWarnings("unchecked")
-        TreeMap<String, String> blobs
-                = (TreeMap<String, String>) currentCommit.getBlobs().clone();
+        TreeMap<String, ObjectId> blobs
+                = (TreeMap<String, ObjectId>) currentCommit.getBlobs().clone();
         for (String key: stagingArea.keySet()) {
-            if (stagingArea.get(key).equals("")) {
+            if (stagingArea.get(key).equals(REMOVED)) {
                 blobs.remove(key);
             } else {
                 blobs.put(key, stagingArea.get(key));
@@ -124,13 +177,13 @@ public class GitletRepo implements Serializable {
         }
 
         Commit newCommit = new Commit(parentHash, commitMessage, blobs);
-        File commitFile = Utils.join(COMMIT_FOLDER, newCommit.getHash());
-        commitFile.createNewFile();
-        Utils.writeObject(commitFile, newCommit);
-        this.branches.put(head, newCommit.getHash());
-
-        stagingArea.clear();
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        writeCommit(newCommit);
+        TreeMap<String, ObjectId> committed = stagingArea;
+        adopt(updateRef(GITLET_FOLDER, this, head, parentHash,
+                newCommit.getHash(), repo -> repo.stagingArea.entrySet()
+                    .removeIf(entry -> entry.getValue()
+                        .equals(committed.get(entry.getKey()))),
+                "Branch " + head + " was moved by another command."));
     }
 
     public void mergeCommit(String commitMessage,
@@ -148,10 +201,10 @@ public class GitletRepo implements Serializable {
         Commit currentCommit = currentCommit();
         String parentHash = currentCommit.getHash();
         @SuppressWarnings("unchecked")
-        TreeMap<String, String> blobs
-                = (TreeMap<String, String>) currentCommit.getBlobs().clone();
+        TreeMap<String, ObjectId> blobs
+                = (TreeMap<String, ObjectId>) currentCommit.getBlobs().clone();
         for (String key: stagingArea.keySet()) {
-            if (stagingArea.get(key).equals("")) {
+            if (stagingArea.get(key).equals(REMOVED)) {
                 blobs.remove(key);
             } else {
                 blobs.put(key, stagingArea.get(key));
@@ -160,32 +213,28 @@ public class GitletRepo implements Serializable {
 
         Commit newCommit = new Commit(parentHash, commitMessage, blobs);
         newCommit.setMergeCommit(parentHashMerge);
-        File commitFile = Utils.join(COMMIT_FOLDER, newCommit.getHash());
-        commitFile.createNewFile();
-        Utils.writeObject(commitFile, newCommit);
-        this.branches.put(head, newCommit.getHash());
-
-        stagingArea.clear();
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        writeCommit(newCommit);
+        adopt(updateRef(GITLET_FOLDER, this, head, parentHash,
+                newCommit.getHash(), repo -> repo.stagingArea.clear(),
+                "Branch " + head + " was moved by another command."));
     }
 
     public void checkoutFile(String filename) {
         checkInitialized();
         Commit commit = currentCommit();
-        TreeMap<String, String> blobs = commit.getBlobs();
+        TreeMap<String, ObjectId> blobs = commit.getBlobs();
         if (!blobs.containsKey(filename)) {
             System.out.println("File does not exist in that commit.");
             System.exit(0);
         }
-        File file = Utils.join(CWD, filename);
-        File blobFile = Utils.join(BLOBS_FOLDER, blobs.get(filename));
-        Utils.writeContents(file, Utils.readContents(blobFile));
+        File blobFile = blobFile(blobs.get(filename));
+        workingTree().copy(blobFile, filename);
         Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
     public void checkoutFileWithCommitID(String filename, String commitID) {
         checkInitialized();
-        String[] allCommitFiles = COMMIT_FOLDER.list();
+        String[] allCommitFiles = list(COMMIT_FOLDER);
         String commitName = null;
         for (String commitFileName: allCommitFiles) {
             if (commitFileName.contains(commitID)) {
@@ -198,15 +247,14 @@ public class GitletRepo implements Serializable {
             System.exit(0);
         }
         File commitFile = Utils.join(COMMIT_FOLDER, commitName);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        TreeMap<String, String> blobs = commit.getBlobs();
+        Commit commit = Commit.read(commitFile);
+        TreeMap<String, ObjectId> blobs = commit.getBlobs();
         if (!blobs.containsKey(filename)) {
             System.out.println("File does not exist in that commit.");
             System.exit(0);
         }
-        File file = Utils.join(CWD, filename);
-        File blobFile = Utils.join(BLOBS_FOLDER, blobs.get(filename));
-        Utils.writeContents(file, Utils.readContents(blobFile));
+        File blobFile = blobFile(blobs.get(filename));
+        workingTree().copy(blobFile, filename);
         Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
@@ -224,81 +272,194 @@ public class GitletRepo implements Serializable {
         File checkoutCommitFile = Utils.join(COMMIT_FOLDER,
                 branches.get(branchName));
         Commit checkoutCommit
-                = Utils.readObject(checkoutCommitFile, Commit.class);
-        ArrayList<File> files = new ArrayList<>();
-        File[] allFiles = CWD.listFiles();
-        for (File file: allFiles) {
-            if (!file.isDirectory()) {
-                files.add(file);
-            }
-        }
-        String[] fileNames = new String[files.size()];
-        int counter = 0;
-        for (File file: files) {
-            fileNames[counter] = file.getName();
-            counter++;
-        }
-        for (String filename: fileNames) {
-            if (checkoutCommit.getBlobs().containsKey(filename)
-                    && !currCommit.getBlobs().containsKey(filename)) {
+                = Commit.read(checkoutCommitFile);
+        checkUntracked(currCommit, checkoutCommit);
+
+        long start = Stats.start();
+        GitletEvents.Checkout event = new GitletEvents.Checkout();
+        event.begin();
+        checkoutFiles(currCommit, checkoutCommit);
+        Stats.stop("checkout.materialize", start);
+        event.end(checkoutCommit.getHash(), checkoutCommit.getBlobs().size());
+
+        stagingArea.clear();
+        head = branchName;
+        Utils.writeObject(GITLET_REPO_FILE, this);
+    }
+
+    /** Exit with an error if a file that TARGET tracks but CURRENT does
+     *  not is in the working tree, where checking out TARGET would
+     *  overwrite it. */
+    private void checkUntracked(Commit current, Commit target) {
+        for (String filename : target.getBlobs().keySet()) {
+            if (!current.getBlobs().containsKey(filename)
+                    && Utils.join(CWD, filename).isFile()) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
                 System.exit(0);
             }
-            if (!checkoutCommit.getBlobs().containsKey(filename)
-                    && currCommit.getBlobs().containsKey(filename)) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
         }
+    }
 
-        for (String filename: checkoutCommit.getBlobs().keySet()) {
-            File fileOverwrite = Utils.join(CWD, filename);
-            if (!fileOverwrite.exists()) {
-                fileOverwrite.createNewFile();
+    /** Replace the files of CURRENT in the working tree with those of
+     *  TARGET. */
+    private void checkoutFiles(Commit current, Commit target) {
+        WorkingTree tree = workingTree();
+        for (String filename : current.getBlobs().keySet()) {
+            if (!target.getBlobs().containsKey(filename)) {
+                tree.delete(filename);
             }
-            String bHash = checkoutCommit.getBlobs().get(filename);
-            File bFile = Utils.join(BLOBS_FOLDER, bHash);
-            Utils.writeContents(fileOverwrite, Utils.readContents(bFile));
         }
+        for (Map.Entry<String, ObjectId> entry
+                 : target.getBlobs().entrySet()) {
+            tree.copy(blobFile(entry.getValue()),
+                    entry.getKey());
+        }
+    }
 
-        stagingArea.clear();
-        head = branchName;
-        Utils.writeObject(GITLET_REPO_FILE, this);
+    /** Write COMMIT to the object store, after its manifest unless that
+     *  is there already. */
+    static void writeCommit(Commit commit) {
+        MANIFESTS_FOLDER.mkdir();
+        File manifestFile = Utils.join(MANIFESTS_FOLDER,
+                commit.getManifest().toString());
+        if (!ObjectFilter.exists(manifestFile)) {
+            Utils.writeContents(manifestFile, commit.getManifestContents());
+        }
+        Utils.writeObject(Utils.join(COMMIT_FOLDER, commit.getHash()),
+                commit);
+    }
+
+    /** Return the file of the blob HASH. */
+    private static File blobFile(ObjectId hash) {
+        return Utils.join(BLOBS_FOLDER, hash.toString());
+    }
+
+    /** Return the working tree, read when first needed. */
+    private WorkingTree workingTree() {
+        if (workingTree == null) {
+            workingTree = new WorkingTree(CWD);
+        }
+        return workingTree;
     }
 
     public void log() {
         checkInitialized();
+        GitletEvents.GraphTraversal event =
+                new GitletEvents.GraphTraversal();
+        event.begin();
         Commit currentCommit = currentCommit();
+        String start = currentCommit.getHash();
+        long visited = 0;
         while (true) {
+            visited += 1;
             System.out.println(currentCommit.getLogFormat());
-            if (currentCommit.getParentHash() == null) {
+            if (currentCommit.getParentHash() == null
+                    || isShallow(currentCommit.getHash())) {
                 break;
             }
             File nextCommit = Utils.join(COMMIT_FOLDER,
                     currentCommit.getParentHash());
-            currentCommit = Utils.readObject(nextCommit, Commit.class);
+            currentCommit = Commit.read(nextCommit);
         }
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        event.end("log", start, visited);
+    }
+
+    /** Print the log of the commits in the current branch's first-parent
+     *  history that changed FILENAME. Commits whose changed-path filter
+     *  excludes FILENAME are skipped without being read; filters missing
+     *  for complete history are computed and saved. A parent read to
+     *  compute a filter or compare FILENAME is kept for the next step,
+     *  so each manifest is read at most once. A shallow boundary
+     *  is read and compared with no parent instead, and gets no stored
+     *  entry, which would end the walk there even after a deepening fetch
+     *  supplies its parent. */
+    public void logPath(String fileName) {
+        checkInitialized();
+        ChangedPathFilters filters =
+                ChangedPathFilters.load(CHANGED_PATHS_FILE);
+        boolean updated = false;
+        String hash = branches.get(head);
+        Commit parentCommit = null;
+        while (hash != null) {
+            Commit commit = parentCommit;
+            parentCommit = null;
+            boolean shallow = isShallow(hash);
+            if (!shallow && !filters.contains(hash)) {
+                if (commit == null) {
+                    commit = Commit.read(Utils.join(COMMIT_FOLDER, hash));
+                }
+                if (commit.getParentHash() != null) {
+                    parentCommit = Commit.read(Utils.join(COMMIT_FOLDER,
+                            commit.getParentHash()));
+                }
+                filters.add(hash, commit.getParentHash(),
+                        changedPaths(commit, parentCommit));
+                updated = true;
+            }
+            if (shallow || filters.mightHaveChanged(hash, fileName)) {
+                if (commit == null) {
+                    commit = Commit.read(Utils.join(COMMIT_FOLDER, hash));
+                }
+                String parent = shallow ? null : filters.parent(hash);
+                if (parent != null && parentCommit == null) {
+                    parentCommit = Commit.read(Utils.join(COMMIT_FOLDER,
+                            parent));
+                }
+                ObjectId parentBlob = parentCommit == null ? null
+                        : parentCommit.getBlobs().get(fileName);
+                ObjectId blob = commit.getBlobs().get(fileName);
+                if (blob == null ? parentBlob != null
+                        : !blob.equals(parentBlob)) {
+                    System.out.println(commit.getLogFormat());
+                }
+            }
+            hash = shallow ? null : filters.parent(hash);
+        }
+        if (updated) {
+            filters.save(CHANGED_PATHS_FILE);
+        }
+    }
+
+    /** Return the paths whose blobs differ between COMMIT and its parent
+     *  PARENT, or all of COMMIT's paths if PARENT is null. */
+    private ArrayList<String> changedPaths(Commit commit, Commit parent) {
+        TreeMap<String, ObjectId> blobs = commit.getBlobs();
+        if (parent == null) {
+            return new ArrayList<>(blobs.keySet());
+        }
+        TreeMap<String, ObjectId> parentBlobs = parent.getBlobs();
+        ArrayList<String> changed = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> entry : blobs.entrySet()) {
+            if (!entry.getValue().equals(parentBlobs.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String path : parentBlobs.keySet()) {
+            if (!blobs.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        return changed;
     }
 
     public void globalLog() {
         checkInitialized();
-        String[] commitIDs = COMMIT_FOLDER.list();
+        String[] commitIDs = list(COMMIT_FOLDER);
         for (String commitID: commitIDs) {
             File commitFile = Utils.join(COMMIT_FOLDER, commitID);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
+            Commit commit = Commit.read(commitFile);
             System.out.println(commit.getLogFormat());
         }
-        Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
     public void find(String message) {
         checkInitialized();
-        String[] commitIDs = COMMIT_FOLDER.list();
+        String[] commitIDs = list(COMMIT_FOLDER);
         int counter = 0;
         for (String commitID: commitIDs) {
             File commitFile = Utils.join(COMMIT_FOLDER, commitID);
-            Commit commit = Utils.readObject(commitFile, Commit.class);
+            Commit commit = Commit.read(commitFile);
             if (message.equals(commit.getCommitMessage())) {
                 System.out.println(commitID);
                 counter++;
@@ -308,7 +469,6 @@ public class GitletRepo implements Serializable {
             System.out.println("Found no commit with that message.");
             System.exit(0);
         }
-        Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
     public void rm(String filename) {
@@ -316,16 +476,14 @@ public class GitletRepo implements Serializable {
         boolean staged = false;
         boolean tracked = false;
         if (stagingArea.containsKey(filename)
-                && !stagingArea.get(filename).equals("")) {
+                && !stagingArea.get(filename).equals(REMOVED)) {
             stagingArea.remove(filename);
             staged = true;
         }
         Commit currCommit = currentCommit();
         if (currCommit.getBlobs().containsKey(filename)) {
-            stagingArea.put(filename, "");
-            if (Utils.join(CWD, filename).exists()) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
+            stagingArea.put(filename, REMOVED);
+            workingTree().delete(filename);
             tracked = true;
         }
         if (!staged && !tracked) {
@@ -342,7 +500,6 @@ public class GitletRepo implements Serializable {
             System.exit(0);
         } else {
             branches.put(branchName, branches.get(head));
-            Utils.writeObject(GITLET_REPO_FILE, this);
         }
     }
 
@@ -357,7 +514,6 @@ public class GitletRepo implements Serializable {
             System.exit(0);
         }
         branches.remove(branchName);
-        Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
     public void statusPrint(ArrayList<String> branchesStatus,
@@ -397,12 +553,36 @@ public class GitletRepo implements Serializable {
         for (String str: untrackedStatus) {
             System.out.println(str);
         }
+    }
 
-        Utils.writeObject(GITLET_REPO_FILE, this);
+    /** Return the SHA-1 hash of the working file FILENAME, or null if
+     *  there is no such file.  HASHES, if not null, holds the hashes kept
+     *  up to date by the monitor, which are used when present. */
+    private ObjectId workingHash(TreeMap<String, ObjectId> hashes,
+                                 String filename) {
+        ObjectId hash = hashes == null ? null : hashes.get(filename);
+        if (hash == null) {
+            File file = Utils.join(CWD, filename);
+            if (file.isFile()) {
+                hash = Utils.sha1Id(Utils.readContents(file));
+            }
+        }
+        return hash;
+    }
+
+    /** Run the file system monitor of the working tree until killed. */
+    public void monitor() throws IOException {
+        checkInitialized();
+        try {
+            new Monitor(GITLET_FOLDER, workingTree()).run();
+        } catch (InterruptedException excp) {
+            return;
+        }
     }
 
     public void status() {
         checkInitialized();
+        long start = Stats.start();
         ArrayList<String> branchesStatus = new ArrayList<>();
         ArrayList<String> stagedFilesStatus = new ArrayList<>();
         ArrayList<String> removedFilesStatus = new ArrayList<>();
@@ -411,56 +591,313 @@ public class GitletRepo implements Serializable {
         for (String bName: branches.keySet()) {
             branchesStatus.add(bName);
         }
+        TreeMap<String, ObjectId> hashes =
+                Monitor.hashes(GITLET_FOLDER, workingTree());
         for (String stagingKey: stagingArea.keySet()) {
-            if (stagingArea.get(stagingKey).equals("")) {
+            if (stagingArea.get(stagingKey).equals(REMOVED)) {
                 removedFilesStatus.add(stagingKey);
             } else {
                 stagedFilesStatus.add(stagingKey);
-                if (!Utils.join(CWD, stagingKey).exists()) {
-                    continue;
-                } else {
-                    String fileHash = Utils.sha1
-                            (Utils.readContents(Utils.join(CWD, stagingKey)));
-                    if (!stagingArea.get(stagingKey).equals(fileHash)) {
-                        modifiedStatus.add(stagingKey + " (modified)");
-                    }
+                ObjectId fileHash = workingHash(hashes, stagingKey);
+                if (fileHash != null
+                        && !stagingArea.get(stagingKey).equals(fileHash)) {
+                    modifiedStatus.add(stagingKey + " (modified)");
                 }
             }
         }
 
-        for (String fileName: currentCommit().getBlobs().keySet()) {
-            if (Utils.join(CWD, fileName).exists()) {
-                String fileHash = Utils.sha1
-                        (Utils.readContents(Utils.join(CWD, fileName)));
-                if (!currentCommit().getBlobs().get(fileName).equals
-                        (fileHash)) {
+        TreeMap<String, ObjectId> tracked = currentCommit().getBlobs();
+        for (String fileName: tracked.keySet()) {
+            ObjectId fileHash = workingHash(hashes, fileName);
+            if (fileHash != null) {
+                if (!tracked.get(fileName).equals(fileHash)) {
                     modifiedStatus.add(fileName + " (modified)");
                 }
             } else {
-                if (currentCommit().getBlobs()
-                        .containsKey(fileName)
-                        && (!stagingArea.containsKey(fileName)
-                        || !stagingArea.get(fileName).equals(""))) {
+                if (!stagingArea.containsKey(fileName)
+                        || !stagingArea.get(fileName).equals(REMOVED)) {
                     modifiedStatus.add(fileName + " (deleted)");
                 }
             }
         }
 
-        for (String fileName: CWD.list()) {
-            if (!stagingArea.containsKey(fileName)
-                    && !currentCommit().getBlobs().containsKey(fileName)
-                    && Utils.join(CWD, fileName).isFile()) {
-                untrackedStatus.add(fileName);
+        if (hashes != null) {
+            for (String fileName : hashes.keySet()) {
+                if (!stagingArea.containsKey(fileName)
+                        && !tracked.containsKey(fileName)) {
+                    untrackedStatus.add(fileName);
+                }
             }
+        } else {
+            Set<String> untracked = new ConcurrentSkipListSet<>();
+            workingTree().forEach(fileName -> {
+                if (!stagingArea.containsKey(fileName)
+                        && !tracked.containsKey(fileName)) {
+                    untracked.add(fileName);
+                }
+            });
+            untrackedStatus.addAll(untracked);
         }
 
+        Stats.stop("status.scan", start);
         statusPrint(branchesStatus, stagedFilesStatus,
                 removedFilesStatus, modifiedStatus, untrackedStatus);
     }
 
+    /** Print a unified diff of the tracked files between two versions.
+     *  With no REVS the current commit is compared to the working
+     *  directory, with one REV that commit is, and with two the two
+     *  commits are compared. Each REV is a branch name or commit id. If
+     *  PATH is not null only that file is compared. Files with equal
+     *  blob hashes are skipped and renames are detected; the rest are
+     *  diffed in parallel and printed in order as soon as they are
+     *  ready. */
+    public void diff(List<String> revs, String path) {
+        checkInitialized();
+        TreeMap<String, ObjectId> blobs1 = revs.isEmpty()
+                ? currentCommit().getBlobs()
+                : resolveCommit(revs.get(0)).getBlobs();
+        boolean workingTree = revs.size() < 2;
+        TreeMap<String, ObjectId> blobs2;
+        if (workingTree) {
+            blobs2 = new TreeMap<>();
+            TreeSet<String> tracked = new TreeSet<>(blobs1.keySet());
+            for (String fileName : stagingArea.keySet()) {
+                if (!stagingArea.get(fileName).equals(REMOVED)) {
+                    tracked.add(fileName);
+                }
+            }
+            for (String fileName : tracked) {
+                File file = Utils.join(CWD, fileName);
+                if ((path == null || path.equals(fileName))
+                        && file.isFile()) {
+                    blobs2.put(fileName, Utils.sha1Id(file));
+                }
+            }
+        } else {
+            blobs2 = resolveCommit(revs.get(1)).getBlobs();
+        }
+        TreeSet<String> changed = new TreeSet<>(blobs1.keySet());
+        changed.addAll(blobs2.keySet());
+        changed.removeIf(fileName -> (path != null && !path.equals(fileName))
+                || (blobs1.containsKey(fileName)
+                && blobs1.get(fileName).equals(blobs2.get(fileName))));
+        TreeMap<String, ObjectId> deleted = new TreeMap<>();
+        TreeMap<String, ObjectId> added = new TreeMap<>();
+        for (String fileName : changed) {
+            if (!blobs2.containsKey(fileName)) {
+                deleted.put(fileName, blobs1.get(fileName));
+            } else if (!blobs1.containsKey(fileName)) {
+                added.put(fileName, blobs2.get(fileName));
+            }
+        }
+        TreeMap<String, String> renames = new TreeMap<>();
+        if (!deleted.isEmpty() && !added.isEmpty()) {
+            renames = new RenameDetector(SKETCHES_FOLDER).detect(deleted,
+                    added, BLOBS_FOLDER, p -> workingTree
+                            ? Utils.join(CWD, p)
+                            : blobFile(blobs2.get(p)));
+            changed.removeAll(renames.values());
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        int window = 2 * Runtime.getRuntime().availableProcessors();
+        for (String fileName : changed) {
+            String oldName = renames.getOrDefault(fileName, fileName);
+            ObjectId hash1 = blobs1.get(oldName);
+            ObjectId hash2 = blobs2.get(fileName);
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                File file1 = hash1 == null ? null : blobFile(hash1);
+                File file2 = hash2 == null ? null : workingTree
+                        ? Utils.join(CWD, fileName) : blobFile(hash2);
+                try {
+                    return UnifiedDiff.format(oldName, fileName,
+                            file1 == null ? null
+                                    : ChunkedBlobs.readAllLines(file1,
+                                            StandardCharsets.UTF_8),
+                            file2 == null ? null : workingTree
+                                    ? Files.readAllLines(file2.toPath())
+                                    : ChunkedBlobs.readAllLines(file2,
+                                            StandardCharsets.UTF_8));
+                } catch (IOException excp) {
+                    return "Binary files a/" + fileName + " and b/"
+                            + fileName + " differ\n";
+                }
+            }));
+            if (pending.size() >= window) {
+                out.print(pending.poll().join());
+                out.flush();
+            }
+        }
+        while (!pending.isEmpty()) {
+            out.print(pending.poll().join());
+        }
+        out.flush();
+    }
+
+    /** Print each line of FILENAME in the current commit preceded by the
+     *  id of the commit that last changed it. */
+    public void blame(String fileName) {
+        checkInitialized();
+        String headHash = branches.get(head);
+        ObjectId blobHash = currentCommit().getBlobs().get(fileName);
+        if (blobHash == null) {
+            System.out.println("File does not exist in that commit.");
+            System.exit(0);
+        }
+        String[] origins = blameOrigins(headHash, fileName);
+        List<String> lines;
+        try {
+            lines = ChunkedBlobs.readAllLines(blobFile(blobHash));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        String width = Integer.toString(Integer.toString(lines.size())
+                .length());
+        for (int i = 0; i < lines.size(); i += 1) {
+            out.printf("%s %" + width + "d) %s%n",
+                    origins[i].substring(0, 7), i + 1, lines.get(i));
+        }
+        out.flush();
+    }
+
+    /** Return, for each line of FILENAME in commit COMMITHASH, the hash of
+     *  the commit that introduced it. History is walked through all
+     *  parents without recursion. A commit whose blob equals a parent's
+     *  shares that parent's result without reading any contents; elsewhere
+     *  the file is diffed against its parents and the result is cached in
+     *  BLAME_FOLDER. */
+    private String[] blameOrigins(String commitHash, String fileName) {
+        HashMap<String, String[]> done = new HashMap<>();
+        HashMap<String, Commit> commits = new HashMap<>();
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.push(commitHash);
+        while (!toVisit.isEmpty()) {
+            String hash = toVisit.peek();
+            if (done.containsKey(hash)) {
+                toVisit.pop();
+                continue;
+            }
+            File cacheFile = Utils.join(BLAME_FOLDER,
+                    hash + "." + Utils.sha1(fileName));
+            if (cacheFile.exists()) {
+                done.put(hash, Utils.readObject(cacheFile, String[].class));
+                toVisit.pop();
+                continue;
+            }
+            Commit commit = commits.computeIfAbsent(hash, h -> Commit
+                    .read(Utils.join(COMMIT_FOLDER, h)));
+            ArrayList<String> parents = new ArrayList<>();
+            if (!isShallow(hash)) {
+                for (String parent : new String[] {commit.getParentHash(),
+                    commit.getParentHashMerge()}) {
+                    if (parent != null) {
+                        Commit p = commits.computeIfAbsent(parent, h ->
+                                Commit.read(Utils.join(COMMIT_FOLDER, h)));
+                        if (p.getBlobs().containsKey(fileName)) {
+                            parents.add(parent);
+                        }
+                    }
+                }
+            }
+            boolean ready = true;
+            for (String parent : parents) {
+                if (!done.containsKey(parent)) {
+                    toVisit.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            toVisit.pop();
+            ObjectId blobHash = commit.getBlobs().get(fileName);
+            String[] origins = null;
+            for (String parent : parents) {
+                if (blobHash.equals(commits.get(parent).getBlobs()
+                        .get(fileName))) {
+                    origins = done.get(parent);
+                    break;
+                }
+            }
+            if (origins == null) {
+                origins = blameAgainstParents(hash, blobHash, fileName,
+                        parents, commits, done);
+                BLAME_FOLDER.mkdir();
+                Utils.writeObject(cacheFile, origins);
+            }
+            done.put(hash, origins);
+        }
+        return done.get(commitHash);
+    }
+
+    /** Return the origins of the lines of blob BLOBHASH, the version of
+     *  FILENAME in commit HASH: lines matched in the version of one of
+     *  PARENTS keep that parent's origin from DONE, and the rest were
+     *  introduced by HASH. COMMITS holds the loaded commits. */
+    private String[] blameAgainstParents(String hash, ObjectId blobHash,
+                                         String fileName,
+                                         List<String> parents,
+                                         Map<String, Commit> commits,
+                                         Map<String, String[]> done) {
+        try {
+            List<String> lines = ChunkedBlobs.readAllLines(
+                    blobFile(blobHash));
+            String[] origins = new String[lines.size()];
+            Diff diff = new Diff();
+            for (String parent : parents) {
+                ObjectId parentBlob = commits.get(parent).getBlobs()
+                        .get(fileName);
+                diff.setSequences(ChunkedBlobs.readAllLines(
+                        blobFile(parentBlob)), lines);
+                String[] parentOrigins = done.get(parent);
+                int[] common = diff.commonSubsequence();
+                for (int k = 0; k < common.length; k += 3) {
+                    for (int i = 0; i < common[k + 2]; i += 1) {
+                        if (origins[common[k + 1] + i] == null) {
+                            origins[common[k + 1] + i] =
+                                    parentOrigins[common[k] + i];
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < origins.length; i += 1) {
+                if (origins[i] == null) {
+                    origins[i] = hash;
+                }
+            }
+            return origins;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the commit named by REV, which is either a branch name or a
+     *  (possibly abbreviated) commit id. */
+    private Commit resolveCommit(String rev) {
+        String commitName = branches.get(rev);
+        if (commitName == null) {
+            for (String commitFileName: list(COMMIT_FOLDER)) {
+                if (commitFileName.startsWith(rev)) {
+                    commitName = commitFileName;
+                    break;
+                }
+            }
+        }
+        if (commitName == null) {
+            System.out.println("No commit with that id exists.");
+            System.exit(0);
+        }
+        return Commit.read(Utils.join(COMMIT_FOLDER, commitName));
+    }
+
     public void reset(String commitID) throws IOException {
         checkInitialized();
-        String[] allCommitFiles = COMMIT_FOLDER.list();
+        String[] allCommitFiles = list(COMMIT_FOLDER);
         String commitName = null;
         for (String commitFileName: allCommitFiles) {
             if (commitFileName.contains(commitID)) {
@@ -475,85 +912,37 @@ public class GitletRepo implements Serializable {
 
         Commit currCommit = currentCommit();
         File checkoutCommitFile = Utils.join(COMMIT_FOLDER, commitName);
-        Commit checkoutCommit = Utils.readObject(checkoutCommitFile,
-                Commit.class);
-
-        ArrayList<File> files = new ArrayList<>();
-        File[] allFiles = CWD.listFiles();
-        for (File file: allFiles) {
-            if (!file.isDirectory()) {
-                files.add(file);
-            }
-        }
-        String[] fileNames = new String[files.size()];
-        int counter = 0;
-        for (File file: files) {
-            fileNames[counter] = file.getName();
-            counter++;
-        }
-        for (String filename: fileNames) {
-            if (checkoutCommit.getBlobs().containsKey(filename)
-                    && !currCommit.getBlobs().containsKey(filename)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
-            if (!checkoutCommit.getBlobs().containsKey(filename)
-                    && currCommit.getBlobs().containsKey(filename)) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
-        }
+        Commit checkoutCommit = Commit.read(checkoutCommitFile);
+        checkUntracked(currCommit, checkoutCommit);
 
-        for (String filename: checkoutCommit.getBlobs().keySet()) {
-            File fileOverwrite = Utils.join(CWD, filename);
-            if (!fileOverwrite.exists()) {
-                fileOverwrite.createNewFile();
-            }
-            String bHash = checkoutCommit.getBlobs().get(filename);
-            File bFile = Utils.join(BLOBS_FOLDER, bHash);
-            Utils.writeContents(fileOverwrite, Utils.readContents(bFile));
-        }
+        GitletEvents.Checkout event = new GitletEvents.Checkout();
+        event.begin();
+        checkoutFiles(currCommit, checkoutCommit);
+        event.end(checkoutCommit.getHash(), checkoutCommit.getBlobs().size());
 
-        stagingArea.clear();
-        branches.put(head, checkoutCommit.getHash());
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        adopt(updateRef(GITLET_FOLDER, this, head, currCommit.getHash(),
+                checkoutCommit.getHash(), repo -> repo.stagingArea.clear(),
+                "Branch " + head + " was moved by another command."));
     }
 
     public void merge(String branchName) throws IOException {
         checkInitialized();
         checkMergeErrors(branchName);
 
-        ArrayList<File> files = new ArrayList<>();
-        File[] allFiles = CWD.listFiles();
-        for (File file: allFiles) {
-            if (!file.isDirectory()) {
-                files.add(file);
-            }
-        }
-        String[] fileNames = new String[files.size()];
-        int counter = 0;
-        for (File file: files) {
-            fileNames[counter] = file.getName();
-            counter++;
-        }
-
         Commit currCommit = currentCommit();
         File givenCommitFile =
                 Utils.join(COMMIT_FOLDER, branches.get(branchName));
-        Commit givenCommit = Utils.readObject(givenCommitFile, Commit.class);
-        for (String filename: fileNames) {
-            if (givenCommit.getBlobs().containsKey(filename)
-                    && !currCommit.getBlobs().containsKey(filename)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
+        Commit givenCommit = Commit.read(givenCommitFile);
+        checkUntracked(currCommit, givenCommit);
 
         String splitPoint = findSplitPoint(currCommit, givenCommit);
+        if (splitPoint.equals("")) {
+            System.out.println("No common ancestor in shallow history; "
+                    + "deepen it with fetch --deepen first.");
+            System.exit(0);
+        }
         File splitPointFile = Utils.join(COMMIT_FOLDER, splitPoint);
-        Commit splitPointCommit = Utils.readObject
-                (splitPointFile, Commit.class);
+        Commit splitPointCommit = Commit.read(splitPointFile);
 
         if (splitPoint.equals(givenCommit.getHash())) {
             System.out.println("Given branch is an "
@@ -577,60 +966,255 @@ public class GitletRepo implements Serializable {
         Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
+    /** Merge GIVENCOMMIT into CURRCOMMIT, whose split point is
+     *  SPLITPOINTCOMMIT, updating the working directory and staging the
+     *  result. All paths are first classified by blob hash; files are then
+     *  written and merged in parallel, and staged in one update. Removed
+     *  files are deleted before any is written, as deleting one may remove
+     *  a folder that a file being written needs. Return true iff there
+     *  was a conflict. */
     public boolean mergeAll(Commit givenCommit, Commit currCommit,
                             Commit splitPointCommit) throws IOException {
-        boolean isConflict = false;
-        ArrayList<String> gcFiles =
-                new ArrayList<>(givenCommit.getBlobs().keySet());
-        TreeMap<String, String> gcBlobs = givenCommit.getBlobs();
-        ArrayList<String> currFiles =
-                new ArrayList<>(currCommit.getBlobs().keySet());
-        TreeMap<String, String> currBlobs = currCommit.getBlobs();
-        ArrayList<String> splitFiles =
-                new ArrayList<>(splitPointCommit.getBlobs().keySet());
-        TreeMap<String, String> splitBlobs = splitPointCommit.getBlobs();
+        TreeMap<String, ObjectId> gcBlobs =
+                new TreeMap<>(givenCommit.getBlobs());
+        TreeMap<String, ObjectId> currBlobs =
+                new TreeMap<>(currCommit.getBlobs());
+        TreeMap<String, ObjectId> splitBlobs =
+                new TreeMap<>(splitPointCommit.getBlobs());
+        GitletEvents.Merge event = new GitletEvents.Merge();
+        event.begin();
+        long start = Stats.start();
+        TreeMap<String, MergeAction> plan =
+                planMerge(splitBlobs, currBlobs, gcBlobs);
+        Stats.stop("merge.plan", start);
+        start = Stats.start();
+        Set<String> conflicts = ConcurrentHashMap.newKeySet();
+        Map<String, ObjectId> staged = resolveMerge(plan, splitBlobs,
+                currBlobs, gcBlobs, conflicts);
+        Stats.stop("merge.resolve", start);
+        start = Stats.start();
+        GitletEvents.Checkout checkout = new GitletEvents.Checkout();
+        checkout.begin();
+        WorkingTree tree = workingTree();
+        for (Map.Entry<String, ObjectId> entry : staged.entrySet()) {
+            if (entry.getValue().equals(REMOVED)) {
+                tree.delete(entry.getKey());
+            }
+        }
+        staged.entrySet().parallelStream()
+                .filter(entry -> !entry.getValue().equals(REMOVED))
+                .forEach(entry -> tree.copy(blobFile(entry.getValue()),
+                        entry.getKey()));
+        stagingArea.putAll(staged);
+        Utils.writeObject(GITLET_REPO_FILE, this);
+        Stats.stop("merge.materialize", start);
+        checkout.end(currCommit.getHash(), staged.size());
+        event.end(currCommit.getHash(), givenCommit.getHash(),
+                splitPointCommit.getHash(), plan.size(), conflicts.size());
+        return !conflicts.isEmpty();
+    }
 
-        for (String fileName: gcFiles) {
-            if (!splitBlobs.containsKey(fileName) || !splitBlobs.get(fileName)
-                    .equals(gcBlobs.get(fileName))) {
-                checkoutFileWithCommitID(fileName, givenCommit.getHash());
-                add(fileName);
+    /** Merge the branch GIVENBRANCH into TARGETBRANCH using only the object
+     *  store, leaving the working directory, head and staging area alone.
+     *  On success the merge commit becomes the new tip of TARGETBRANCH;
+     *  otherwise nothing is committed and the conflicting files are
+     *  reported. */
+    public void mergeInto(String targetBranch, String givenBranch) {
+        checkInitialized();
+        if (!branches.containsKey(targetBranch)
+                || !branches.containsKey(givenBranch)) {
+            System.out.println("A branch with that name does not exist.");
+            System.exit(0);
+        }
+        if (targetBranch.equals(givenBranch)) {
+            System.out.println("Cannot merge a branch with itself.");
+            System.exit(0);
+        }
+        if (targetBranch.equals(head)) {
+            System.out.println("Cannot merge into the checked-out branch "
+                    + "without updating the working directory.");
+            System.exit(0);
+        }
+        Commit targetCommit = Commit.read(Utils.join(COMMIT_FOLDER,
+                branches.get(targetBranch)));
+        Commit givenCommit = Commit.read(Utils.join(COMMIT_FOLDER,
+                branches.get(givenBranch)));
+        String splitPoint = findSplitPoint(targetCommit, givenCommit);
+        if (splitPoint.equals("")) {
+            System.out.println("No common ancestor in shallow history; "
+                    + "deepen it with fetch --deepen first.");
+            System.exit(0);
+        }
+        if (splitPoint.equals(givenCommit.getHash())) {
+            System.out.println("Given branch is an "
+                    + "ancestor of the target branch.");
+            return;
+        }
+        if (splitPoint.equals(targetCommit.getHash())) {
+            updateRef(GITLET_FOLDER, this, targetBranch,
+                    targetCommit.getHash(), givenCommit.getHash(), null,
+                    "Branch " + targetBranch
+                    + " was moved by another command.");
+            Utils.writeObject(GITLET_REPO_FILE, this);
+            System.out.println("Target branch fast-forwarded.");
+            return;
+        }
+        Commit splitPointCommit = Commit.read(Utils.join(COMMIT_FOLDER,
+                splitPoint));
+        TreeMap<String, ObjectId> targetBlobs =
+                new TreeMap<>(targetCommit.getBlobs());
+        TreeMap<String, ObjectId> gcBlobs =
+                new TreeMap<>(givenCommit.getBlobs());
+        TreeMap<String, ObjectId> splitBlobs =
+                new TreeMap<>(splitPointCommit.getBlobs());
+        GitletEvents.Merge event = new GitletEvents.Merge();
+        event.begin();
+        TreeMap<String, MergeAction> plan =
+                planMerge(splitBlobs, targetBlobs, gcBlobs);
+        Set<String> conflicts = ConcurrentHashMap.newKeySet();
+        Map<String, ObjectId> resolved = resolveMerge(plan, splitBlobs,
+                targetBlobs, gcBlobs, conflicts);
+        event.end(targetCommit.getHash(), givenCommit.getHash(), splitPoint,
+                plan.size(), conflicts.size());
+        if (!conflicts.isEmpty()) {
+            System.out.println("Merge conflicts:");
+            for (String fileName : new TreeSet<>(conflicts)) {
+                String kind = "content";
+                if (plan.get(fileName) == MergeAction.CONFLICT) {
+                    kind = gcBlobs.containsKey(fileName)
+                            ? "add/add" : "modify/delete";
+                }
+                System.out.println("CONFLICT (" + kind + "): " + fileName);
+            }
+            return;
+        }
+        TreeMap<String, ObjectId> blobs =
+                new TreeMap<>(targetCommit.getBlobs());
+        for (Map.Entry<String, ObjectId> entry : resolved.entrySet()) {
+            if (entry.getValue().equals(REMOVED)) {
+                blobs.remove(entry.getKey());
+            } else {
+                blobs.put(entry.getKey(), entry.getValue());
             }
         }
+        Commit newCommit = new Commit(targetCommit.getHash(), "Merged "
+                + givenBranch + " into " + targetBranch + ".", blobs);
+        newCommit.setMergeCommit(givenCommit.getHash());
+        writeCommit(newCommit);
+        updateRef(GITLET_FOLDER, this, targetBranch, targetCommit.getHash(),
+                newCommit.getHash(), null, "Branch " + targetBranch
+                + " was moved by another command.");
+        Utils.writeObject(GITLET_REPO_FILE, this);
+    }
 
-        for (String fileName: splitFiles) {
-            if (currBlobs.containsKey(fileName)
-                    && splitBlobs.get(fileName).equals(currBlobs.get(fileName))
-                    && !gcBlobs.containsKey(fileName)) {
-                rm(fileName);
+    /** How the merge resolves one path. */
+    private enum MergeAction {
+        /** Take the given branch's version. */
+        TAKE_GIVEN,
+        /** Take the current branch's version, under a renamed path. */
+        TAKE_CURRENT,
+        /** Remove the file. */
+        REMOVE,
+        /** Merge both versions line by line against the split point. */
+        LINE_MERGE,
+        /** Mark the whole file as conflicted. */
+        CONFLICT
+    }
+
+    /** Return the action for every path whose merged version differs from
+     *  the current one, given the blob maps SPLITBLOBS, CURRBLOBS and
+     *  GCBLOBS of the split point, current and given commits. Only hashes
+     *  are compared. Files renamed on one side are followed by moving
+     *  their entries in the three maps to the new path, so the maps are
+     *  modified. */
+    private TreeMap<String, MergeAction> planMerge(
+            TreeMap<String, ObjectId> splitBlobs,
+            TreeMap<String, ObjectId> currBlobs,
+            TreeMap<String, ObjectId> gcBlobs) {
+        TreeMap<String, String> movedInCurr =
+                followRenames(splitBlobs, currBlobs, gcBlobs);
+        TreeSet<String> paths = new TreeSet<>(gcBlobs.keySet());
+        paths.addAll(currBlobs.keySet());
+        paths.addAll(splitBlobs.keySet());
+        TreeMap<String, MergeAction> plan = new TreeMap<>();
+        for (String fileName : paths) {
+            ObjectId split = splitBlobs.get(fileName);
+            ObjectId curr = currBlobs.get(fileName);
+            ObjectId given = gcBlobs.get(fileName);
+            if (given != null && given.equals(curr)) {
+                continue;
+            } else if (curr != null && split != null && given != null
+                    && !split.equals(curr) && !split.equals(given)) {
+                plan.put(fileName, MergeAction.LINE_MERGE);
+            } else if (curr != null && split != null && given == null
+                    && !split.equals(curr)) {
+                plan.put(fileName, MergeAction.CONFLICT);
+            } else if (curr != null && split == null && given != null) {
+                plan.put(fileName, MergeAction.CONFLICT);
+            } else if (given != null && !given.equals(split)) {
+                plan.put(fileName, MergeAction.TAKE_GIVEN);
+            } else if (curr != null && given == null
+                    && curr.equals(split)) {
+                plan.put(fileName, MergeAction.REMOVE);
             }
         }
+        for (Map.Entry<String, String> move : movedInCurr.entrySet()) {
+            plan.put(move.getValue(), MergeAction.REMOVE);
+            plan.putIfAbsent(move.getKey(), MergeAction.TAKE_CURRENT);
+        }
+        return plan;
+    }
 
-        for (String fileName: currFiles) {
-            if (splitBlobs.containsKey(fileName)
-                    && gcBlobs.containsKey(fileName)) {
-                if ((!splitBlobs.get(fileName).equals(currBlobs.get(fileName))
-                        && !splitBlobs.get(fileName)
-                        .equals(gcBlobs.get(fileName)))
-                         && !gcBlobs.get(fileName).equals
-                        (currBlobs.get(fileName))) {
-                    isConflict = true;
-                    conflictMergeContents(fileName, givenCommit, currCommit);
-                }
-            } else if (splitBlobs.containsKey(fileName)
-                    && !gcBlobs.containsKey(fileName)) {
-                if (!splitBlobs.get(fileName).equals(currBlobs.get(fileName))) {
-                    isConflict = true;
-                    conflictMergeContents(fileName, givenCommit, currCommit);
-                }
-            } else if (!splitBlobs.containsKey(fileName)
-                    && gcBlobs.containsKey(fileName)) {
-                isConflict = true;
-                conflictMergeContents(fileName, givenCommit, currCommit);
+    /** Detect files renamed since the split point on either side of a
+     *  merge, and move their entries in SPLITBLOBS, CURRBLOBS and GCBLOBS
+     *  to the new name so that both sides' changes meet there. Return a
+     *  map from the new name to the old one of files the given branch
+     *  renamed, which must move in the current branch too. */
+    private TreeMap<String, String> followRenames(
+            TreeMap<String, ObjectId> splitBlobs,
+            TreeMap<String, ObjectId> currBlobs,
+            TreeMap<String, ObjectId> gcBlobs) {
+        RenameDetector detector = new RenameDetector(SKETCHES_FOLDER);
+        TreeMap<String, String> movedInCurr = new TreeMap<>();
+        TreeMap<String, String> givenRenames = detector.detect(
+                missingFrom(splitBlobs, gcBlobs),
+                missingFrom(gcBlobs, splitBlobs), BLOBS_FOLDER,
+                p -> blobFile(gcBlobs.get(p)));
+        for (Map.Entry<String, String> rename : givenRenames.entrySet()) {
+            String newName = rename.getKey(), oldName = rename.getValue();
+            if (currBlobs.containsKey(oldName)
+                    && !currBlobs.containsKey(newName)) {
+                splitBlobs.put(newName, splitBlobs.remove(oldName));
+                currBlobs.put(newName, currBlobs.remove(oldName));
+                movedInCurr.put(newName, oldName);
+            }
+        }
+        TreeMap<String, String> currRenames = detector.detect(
+                missingFrom(splitBlobs, currBlobs),
+                missingFrom(currBlobs, splitBlobs), BLOBS_FOLDER,
+                p -> blobFile(currBlobs.get(p)));
+        for (Map.Entry<String, String> rename : currRenames.entrySet()) {
+            String newName = rename.getKey(), oldName = rename.getValue();
+            if (gcBlobs.containsKey(oldName)
+                    && !gcBlobs.containsKey(newName)) {
+                splitBlobs.put(newName, splitBlobs.remove(oldName));
+                gcBlobs.put(newName, gcBlobs.remove(oldName));
             }
         }
+        return movedInCurr;
+    }
 
-        return isConflict;
+    /** Return the entries of BLOBS whose paths are not in OTHER. */
+    private static TreeMap<String, ObjectId> missingFrom(
+            TreeMap<String, ObjectId> blobs,
+            TreeMap<String, ObjectId> other) {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> entry : blobs.entrySet()) {
+            if (!other.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
     }
 
     public void checkMergeErrors(String branchName) {
@@ -649,7 +1233,11 @@ public class GitletRepo implements Serializable {
     }
 
     public String findSplitPoint(Commit currCommit, Commit givenCommit) {
-        String[] allCommits = COMMIT_FOLDER.list();
+        long start = Stats.start();
+        GitletEvents.GraphTraversal event =
+                new GitletEvents.GraphTraversal();
+        event.begin();
+        String[] allCommits = list(COMMIT_FOLDER);
         int min = Integer.MAX_VALUE;
         String splitPoint = "";
         for (String commit: allCommits) {
@@ -662,7 +1250,8 @@ public class GitletRepo implements Serializable {
                 }
             }
         }
-
+        Stats.stop("merge.splitPoint", start);
+        event.end("splitPoint", currCommit.getHash(), allCommits.length);
         return splitPoint;
     }
 
@@ -670,16 +1259,17 @@ public class GitletRepo implements Serializable {
         if (commitToFind.equals(whichCommit.getHash())) {
             return true;
         }
-        if (whichCommit.getParentHash() == null) {
+        if (whichCommit.getParentHash() == null
+                || isShallow(whichCommit.getHash())) {
             return false;
         }
         File p1File = Utils.join(COMMIT_FOLDER,
                 whichCommit.getParentHash());
-        Commit p1 = Utils.readObject(p1File, Commit.class);
+        Commit p1 = Commit.read(p1File);
         if (whichCommit.getMergeCommit()) {
             File p2File = Utils.join(COMMIT_FOLDER,
                     whichCommit.getParentHashMerge());
-            Commit p2 = Utils.readObject(p2File, Commit.class);
+            Commit p2 = Commit.read(p2File);
             return (containsCommit(commitToFind, p1)
                     || containsCommit(commitToFind, p2));
         }
@@ -690,49 +1280,275 @@ public class GitletRepo implements Serializable {
         if (commitToFind.equals(whichCommit.getHash())) {
             return 0;
         }
-        if (whichCommit.getParentHash() == null) {
+        if (whichCommit.getParentHash() == null
+                || isShallow(whichCommit.getHash())) {
             return Integer.MAX_VALUE - 100;
         }
         File p1File = Utils.join(COMMIT_FOLDER,
                 whichCommit.getParentHash());
-        Commit p1 = Utils.readObject(p1File, Commit.class);
+        Commit p1 = Commit.read(p1File);
         if (whichCommit.getMergeCommit()) {
             File p2File = Utils.join(COMMIT_FOLDER,
                     whichCommit.getParentHashMerge());
-            Commit p2 = Utils.readObject(p2File, Commit.class);
+            Commit p2 = Commit.read(p2File);
             return 1 + Math.min(findSplitPointHelper(commitToFind, p1),
                     findSplitPointHelper(commitToFind, p2));
         }
         return 1 + findSplitPointHelper(commitToFind, p1);
     }
 
-    public void conflictMergeContents(String fileName, Commit givenCommit,
-                                        Commit currCommit) throws IOException {
-        TreeMap<String, String> gcBlobs = givenCommit.getBlobs();
-        TreeMap<String, String> currBlobs = currCommit.getBlobs();
-        File file = Utils.join(CWD, fileName);
-        if (!file.exists()) {
-            file.createNewFile();
+    /** Carry out PLAN for the blob maps SPLITBLOBS, CURRBLOBS and GCBLOBS
+     *  in parallel, adding conflicted paths to CONFLICTS. Return the
+     *  resulting blob hash of each planned path, or REMOVED if it is
+     *  removed.
+     *  Only the object store is written. */
+    private Map<String, ObjectId> resolveMerge(
+            TreeMap<String, MergeAction> plan,
+            TreeMap<String, ObjectId> splitBlobs,
+            TreeMap<String, ObjectId> currBlobs,
+            TreeMap<String, ObjectId> gcBlobs, Set<String> conflicts) {
+        ConcurrentHashMap<String, ObjectId> resolved =
+                new ConcurrentHashMap<>();
+        plan.entrySet().parallelStream().forEach(entry -> {
+            String fileName = entry.getKey();
+            ObjectId bHash = mergedBlob(fileName, entry.getValue(),
+                    splitBlobs.get(fileName), currBlobs.get(fileName),
+                    gcBlobs.get(fileName), conflicts);
+            resolved.put(fileName, bHash == null ? REMOVED : bHash);
+        });
+        return resolved;
+    }
+
+    /** Return the hash of the blob that results from resolving FILENAME by
+     *  ACTION, or null if it is removed. SPLITHASH, CURRHASH and GIVENHASH
+     *  are its blobs in the split point, current and given commits (null
+     *  if absent). New blobs are streamed into the blob store, and
+     *  FILENAME is added to CONFLICTS if the result is conflicted. */
+    private ObjectId mergedBlob(String fileName, MergeAction action,
+                                ObjectId splitHash, ObjectId currHash,
+                                ObjectId givenHash, Set<String> conflicts) {
+        try {
+            switch (action) {
+            case TAKE_GIVEN:
+                return givenHash;
+            case TAKE_CURRENT:
+                return currHash;
+            case REMOVE:
+                return null;
+            case LINE_MERGE:
+                List<String> split =
+                        ChunkedBlobs.readTextLines(blobFile(splitHash));
+                List<String> curr =
+                        ChunkedBlobs.readTextLines(blobFile(currHash));
+                List<String> given =
+                        ChunkedBlobs.readTextLines(blobFile(givenHash));
+                if (split == null || curr == null || given == null) {
+                    return conflictBlob(fileName, currHash, givenHash,
+                            conflicts);
+                }
+                ThreeWayMerge merger = new ThreeWayMerge(split, curr, given);
+                File merged = Journal.temp(GITLET_FOLDER.toPath()).toFile();
+                try (Writer out = Files.newBufferedWriter(merged.toPath())) {
+                    if (merger.write(out)) {
+                        conflicts.add(fileName);
+                    }
+                }
+                return storeBlob(merged);
+            default:
+                return conflictBlob(fileName, currHash, givenHash,
+                        conflicts);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the hash of the blob marking the whole of FILENAME as
+     *  conflicted between its blobs CURRHASH and GIVENHASH in the current
+     *  and given commits (null if absent), and add FILENAME to
+     *  CONFLICTS. */
+    private ObjectId conflictBlob(String fileName, ObjectId currHash,
+                                  ObjectId givenHash, Set<String> conflicts)
+            throws IOException {
+        File conflicted =
+                Journal.temp(GITLET_FOLDER.toPath()).toFile();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(conflicted.toPath()))) {
+            out.write("<<<<<<< HEAD\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            if (currHash != null) {
+                try (InputStream in = ChunkedBlobs.open(
+                        blobFile(currHash))) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (givenHash != null) {
+                try (InputStream in = ChunkedBlobs.open(
+                        blobFile(givenHash))) {
+                    in.transferTo(out);
+                }
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
         }
-        String currContents = "";
-        if (currBlobs.containsKey(fileName)) {
-            currContents = Utils.readContentsAsString(Utils.join(BLOBS_FOLDER,
-                    currBlobs.get(fileName)));
+        conflicts.add(fileName);
+        return storeBlob(conflicted);
+    }
+
+    /** Move the finished file TEMP into the blob store under its hash,
+     *  chunking it if it is large, and return that hash. */
+    private ObjectId storeBlob(File temp) throws IOException {
+        ObjectId bHash = Utils.sha1Id(temp);
+        File blobFile = blobFile(bHash);
+        if (ObjectFilter.exists(blobFile)) {
+            temp.delete();
+        } else if (ChunkedBlobs.shouldChunk(temp)) {
+            ChunkedBlobs.store(temp, blobFile);
+            temp.delete();
+        } else {
+            Journal.move(temp, blobFile);
         }
+        return bHash;
+    }
 
-        String givenContents = "";
-        if (gcBlobs.containsKey(fileName)) {
-            givenContents = Utils.readContentsAsString(Utils.join(BLOBS_FOLDER,
-                    gcBlobs.get(fileName)));
+    /** Remove every commit, manifest, blob and chunk that is unreachable
+     *  from the branches, the staging area and the commits last modified
+     *  within the last GRACESECONDS, and was itself last modified before
+     *  then, along with the cached blame results and
+     *  changed-path filters of the commits removed, then report what was
+     *  reclaimed. */
+    public void gc(long graceSeconds) {
+        checkInitialized();
+        long start = Stats.start();
+        long cutoff = System.currentTimeMillis() - graceSeconds * 1000;
+        Set<String> marked = markReachable(cutoff);
+        Stats.stop("gc.mark", start);
+        start = Stats.start();
+        long[] commitsFreed = sweep(COMMIT_FOLDER, marked, cutoff);
+        long[] blobsFreed = sweep(BLOBS_FOLDER, marked, cutoff);
+        if (MANIFESTS_FOLDER.exists()) {
+            commitsFreed[1] += sweep(MANIFESTS_FOLDER, marked, cutoff)[1];
+        }
+        if (CHUNKS_FOLDER.exists()) {
+            Set<String> chunks = ConcurrentHashMap.newKeySet();
+            Arrays.stream(list(BLOBS_FOLDER)).parallel().forEach(hash -> {
+                File blobFile = Utils.join(BLOBS_FOLDER, hash);
+                if (blobFile.isFile()) {
+                    chunks.addAll(ChunkedBlobs.chunks(blobFile));
+                }
+            });
+            blobsFreed[1] += sweep(CHUNKS_FOLDER, chunks, cutoff)[1];
+        }
+        if (SKETCHES_FOLDER.exists()) {
+            sweep(SKETCHES_FOLDER, marked, cutoff);
+        }
+        if (BLAME_FOLDER.exists()) {
+            sweepBlame();
+        }
+        if (commitsFreed[0] > 0 && CHANGED_PATHS_FILE.exists()) {
+            ChangedPathFilters filters =
+                    ChangedPathFilters.load(CHANGED_PATHS_FILE);
+            if (filters.removeIf(hash ->
+                    !Utils.join(COMMIT_FOLDER, hash).exists())) {
+                filters.save(CHANGED_PATHS_FILE);
+            }
+        }
+        Stats.stop("gc.sweep", start);
+        if (commitsFreed[0] > 0 && BITMAPS_FILE.exists()) {
+            ReachabilityBitmaps index =
+                    new ReachabilityBitmaps(COMMIT_FOLDER);
+            index.select(branches.values());
+            index.save(BITMAPS_FILE);
         }
-        String result = "<<<<<<< HEAD\n" + currContents + "=======\n"
-                + givenContents + ">>>>>>>\n";
-        Utils.writeContents(file, result.getBytes(StandardCharsets.UTF_8));
-        stagingArea.put(fileName, Utils.sha1
-                (result.getBytes(StandardCharsets.UTF_8)));
+        File commitPack = Utils.join(GITLET_FOLDER, CommitPack.PACK_NAME);
+        if (commitsFreed[0] > 0 && commitPack.exists()) {
+            CommitPack.write(COMMIT_FOLDER, list(COMMIT_FOLDER));
+        }
+        System.out.println(String.format("Removed %d commits and %d blobs, "
+                + "reclaiming %d bytes.", commitsFreed[0], blobsFreed[0],
+                commitsFreed[1] + blobsFreed[1]));
         Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
+    /** Return the hashes of all commits, manifests and blobs reachable
+     *  from the branches, the staging area and the commits last modified
+     *  at or after CUTOFF, which gc keeps and so must keep whole. Each
+     *  generation of commits is read in parallel. */
+    private Set<String> markReachable(long cutoff) {
+        GitletEvents.GraphTraversal event =
+                new GitletEvents.GraphTraversal();
+        event.begin();
+        long visited = 0;
+        Set<String> marked = ConcurrentHashMap.newKeySet();
+        for (ObjectId blobHash : stagingArea.values()) {
+            if (!blobHash.equals(REMOVED)) {
+                marked.add(blobHash.toString());
+            }
+        }
+        List<String> frontier = new ArrayList<>();
+        for (String tip : branches.values()) {
+            if (marked.add(tip)) {
+                frontier.add(tip);
+            }
+        }
+        for (String hash : list(COMMIT_FOLDER)) {
+            if (Utils.join(COMMIT_FOLDER, hash).lastModified() >= cutoff
+                    && marked.add(hash)) {
+                frontier.add(hash);
+            }
+        }
+        while (!frontier.isEmpty()) {
+            visited += frontier.size();
+            frontier = frontier.parallelStream().flatMap(hash -> {
+                File commitFile = Utils.join(COMMIT_FOLDER, hash);
+                if (!commitFile.exists()) {
+                    return Stream.empty();
+                }
+                Commit commit = Commit.read(commitFile);
+                marked.add(commit.getManifest().toString());
+                for (ObjectId blobHash : commit.getBlobs().values()) {
+                    marked.add(blobHash.toString());
+                }
+                return Stream.of(commit.getParentHash(),
+                        commit.getParentHashMerge())
+                        .filter(p -> p != null && marked.add(p));
+            }).collect(Collectors.toList());
+        }
+        event.end("gc", branches.get(head), visited);
+        return marked;
+    }
+
+    /** Delete the files in FOLDER that are not in MARKED and were last
+     *  modified before CUTOFF. Return the number of files and bytes
+     *  removed. */
+    private long[] sweep(File folder, Set<String> marked, long cutoff) {
+        long[] freed = new long[2];
+        for (String name : list(folder)) {
+            File file = Utils.join(folder, name);
+            if (marked.contains(name) || file.lastModified() >= cutoff) {
+                continue;
+            }
+            long size = file.length();
+            if (Journal.delete(file)) {
+                freed[0] += 1;
+                freed[1] += size;
+            }
+        }
+        return freed;
+    }
+
+    /** Delete the cached blame results of commits that no longer exist,
+     *  and those cached before results were named by their commit. */
+    private void sweepBlame() {
+        for (String name : list(BLAME_FOLDER)) {
+            int dot = name.indexOf('.');
+            if (dot < 0 || !Utils.join(COMMIT_FOLDER,
+                    name.substring(0, dot)).exists()) {
+                Journal.delete(Utils.join(BLAME_FOLDER, name));
+            }
+        }
+    }
+
     public void addRemote(String remoteName, String dirName) {
         checkInitialized();
         if (remotes.containsKey(remoteName)) {
@@ -762,13 +1578,10 @@ public class GitletRepo implements Serializable {
             System.out.println("Remote directory not found.");
             System.exit(0);
         }
-        File remoteGitletRepoFile
-                = Utils.join(remoteGitlet, "gitletRepo");
-        GitletRepo remoteRepo = Utils.readObject(remoteGitletRepoFile,
-                GitletRepo.class);
-        if (!remoteRepo.branches.containsKey(branchName)) {
-            remoteRepo.branch(branchName);
-        }
+        RepoLock remoteLock = RepoLock.of(remoteGitlet);
+        remoteLock.lockShared(RepoLock.REMOTE_TIMEOUT);
+        Journal.recover(remoteGitlet);
+        GitletRepo remoteRepo = read(remoteGitlet);
         Commit localHeadCommit = currentCommit();
         String remoteHeadCommitHash = remoteRepo.branches.get(remoteRepo.head);
         if (!containsCommit(remoteHeadCommitHash, localHeadCommit)) {
@@ -776,52 +1589,180 @@ public class GitletRepo implements Serializable {
                     + "changes before pushing");
             System.exit(0);
         }
+        long start = Stats.start();
         pushHelper(remoteRepo, remoteHeadCommitHash, remoteName);
-        remoteRepo.branches.put(remoteRepo.head, currentCommit().getHash());
-        Utils.writeObject(remoteGitletRepoFile, remoteRepo);
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        Stats.stop("push.copy", start);
+        /* Nothing local is read or written from here on, and holding this
+         * repository while waiting for the remote exclusively would
+         * deadlock with a push the other way, which holds the remote
+         * while waiting for this one. */
+        RepoLock.of(GITLET_FOLDER).unlock();
+        updateRef(remoteGitlet, remoteRepo, remoteRepo.head,
+                remoteHeadCommitHash, localHeadCommit.getHash(),
+                repo -> repo.branches.putIfAbsent(branchName,
+                    remoteHeadCommitHash),
+                "Please pull down remote changes before pushing");
+        remoteLock.unlock();
     }
 
+    /** Copy to REMOTENAME every commit and blob reachable from the current
+     *  commit but not from REMOTEHEADHASH. When both tips have stored
+     *  bitmaps they are found with one bitmap AND-NOT; otherwise by a
+     *  walk from the current commit that stops at commits the remote
+     *  already has, whose history it then has as well. */
     public void pushHelper(GitletRepo remoteRepo,
                            String remoteHeadHash, String remoteName)
             throws IOException {
-        Commit curr = currentCommit();
         String remotePath = remotes.get(remoteName);
         File remoteGitlet  = Utils.join(CWD, remotePath);
         File remoteCommitFolder
                 = Utils.join(remoteGitlet, "commits");
         File remoteBlobsFolder
                 = Utils.join(remoteGitlet, "blobs");
-        while (true) {
-            File commitFile = Utils.join(remoteCommitFolder,
-                    curr.getHash());
-            if (!commitFile.exists()) {
-                commitFile.createNewFile();
-            }
-            Utils.writeObject(commitFile, curr);
-            remoteRepo.branches.put(head, curr.getHash());
-            for (String blobKey: curr.getBlobs().keySet()) {
-                File blobFile = Utils.join(BLOBS_FOLDER,
-                        curr.getBlobs().get(blobKey));
-                File newBlobFile = Utils.join(remoteBlobsFolder,
-                        curr.getBlobs().get(blobKey));
-                if (!newBlobFile.exists()) {
-                    newBlobFile.createNewFile();
-                }
-                Utils.writeContents(blobFile, Utils.readContents(blobFile));
-            }
-            if (curr.getParentHash() == null
-                    || curr.getParentHash().equals(remoteHeadHash)) {
-                break;
+        GitletEvents.RemoteTransfer event =
+                new GitletEvents.RemoteTransfer();
+        event.begin();
+        long[] copied = new long[3];
+        ArrayList<String> commits = new ArrayList<>();
+        TreeSet<String> blobs = new TreeSet<>();
+        ReachabilityBitmaps index =
+                ReachabilityBitmaps.load(BITMAPS_FILE, COMMIT_FOLDER);
+        String localHeadHash = branches.get(head);
+        if (index.covers(localHeadHash) && index.covers(remoteHeadHash)) {
+            BitSet missing = ReachabilityBitmaps.andNot(
+                    index.reachable(localHeadHash),
+                    index.reachable(remoteHeadHash));
+            commits.addAll(index.commits(missing));
+            blobs.addAll(index.blobs(missing));
+        } else {
+            missingCommits(localHeadHash, remoteCommitFolder,
+                    commits, blobs);
+        }
+        for (String blobHash : blobs) {
+            File newBlobFile = Utils.join(remoteBlobsFolder, blobHash);
+            if (!ObjectFilter.exists(newBlobFile)) {
+                copied[1] += 1;
+                copied[2] += ChunkedBlobs.copy(
+                        Utils.join(BLOBS_FOLDER, blobHash), newBlobFile);
+            }
+        }
+        for (String commitHash : commits) {
+            File commitFile = Utils.join(remoteCommitFolder, commitHash);
+            if (!ObjectFilter.exists(commitFile)) {
+                File localFile = Utils.join(COMMIT_FOLDER, commitHash);
+                copied[2] += copyManifest(Commit.read(localFile)
+                        .getManifest(), MANIFESTS_FOLDER,
+                        Utils.join(remoteGitlet, Commit.MANIFESTS_NAME));
+                byte[] contents = Utils.readContents(localFile);
+                Utils.writeContents(commitFile, contents);
+                copied[0] += 1;
+                copied[2] += contents.length;
+            }
+        }
+        event.end(remoteName, "push", copied[0], copied[1], copied[2]);
+    }
+
+    /** Add to COMMITS the commits reachable from STARTHASH that are not
+     *  in REMOTECOMMITFOLDER, and to BLOBS the blobs they reference. The
+     *  walk stops at commits the remote has and at shallow boundaries. */
+    private void missingCommits(String startHash, File remoteCommitFolder,
+                                ArrayList<String> commits,
+                                TreeSet<String> blobs) {
+        GitletEvents.GraphTraversal event =
+                new GitletEvents.GraphTraversal();
+        event.begin();
+        TreeSet<String> visited = new TreeSet<>();
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(startHash);
+        while (!toVisit.isEmpty()) {
+            String hash = toVisit.poll();
+            if (!visited.add(hash) || ObjectFilter.exists(
+                    Utils.join(remoteCommitFolder, hash))) {
+                continue;
+            }
+            Commit commit = Commit.read(Utils.join(COMMIT_FOLDER, hash));
+            commits.add(hash);
+            for (ObjectId blobHash : commit.getBlobs().values()) {
+                blobs.add(blobHash.toString());
+            }
+            if (isShallow(hash)) {
+                continue;
+            }
+            if (commit.getParentHash() != null) {
+                toVisit.add(commit.getParentHash());
+            }
+            if (commit.getParentHashMerge() != null) {
+                toVisit.add(commit.getParentHashMerge());
             }
-            File nextCommit = Utils.join(COMMIT_FOLDER,
-                    curr.getParentHash());
-            curr = Utils.readObject(nextCommit, Commit.class);
         }
+        event.end("push", startHash, commits.size());
+    }
+
+    /** Copy the manifest HASH from the manifests folder FROM to the one
+     *  TO of another repository, unless it is there already.  Return the
+     *  number of bytes copied. */
+    private static long copyManifest(ObjectId hash, File from, File to) {
+        File target = Utils.join(to, hash.toString());
+        if (ObjectFilter.exists(target)) {
+            return 0;
+        }
+        to.mkdir();
+        byte[] contents = Utils.readContents(Utils.join(from,
+                hash.toString()));
+        Utils.writeContents(target, contents);
+        return contents.length;
+    }
+
+    /** Write reachability bitmaps for the tips of all branches, so later
+     *  object enumeration stops at them instead of walking history, and
+     *  changed-path filters for every commit reachable from them, move
+     *  all branches into packed-refs, and pack all commits. */
+    public void repack() {
+        checkInitialized();
+        branches.pack();
+        CommitPack.write(COMMIT_FOLDER, list(COMMIT_FOLDER));
+        ReachabilityBitmaps index =
+                ReachabilityBitmaps.load(BITMAPS_FILE, COMMIT_FOLDER);
+        index.select(branches.values());
+        index.save(BITMAPS_FILE);
+        ChangedPathFilters filters =
+                ChangedPathFilters.load(CHANGED_PATHS_FILE);
+        ArrayDeque<String> toVisit = new ArrayDeque<>(branches.values());
+        while (!toVisit.isEmpty()) {
+            String hash = toVisit.poll();
+            if (filters.contains(hash) || isShallow(hash)) {
+                continue;
+            }
+            Commit commit = Commit.read(Utils.join(COMMIT_FOLDER, hash));
+            filters.add(hash, commit.getParentHash(),
+                    changedPaths(commit, commit.getParentHash() == null
+                        ? null : Commit.read(Utils.join(COMMIT_FOLDER,
+                            commit.getParentHash()))));
+            if (commit.getParentHash() != null) {
+                toVisit.add(commit.getParentHash());
+            }
+            if (commit.getParentHashMerge() != null) {
+                toVisit.add(commit.getParentHashMerge());
+            }
+        }
+        filters.save(CHANGED_PATHS_FILE);
+        Utils.writeObject(GITLET_REPO_FILE, this);
     }
 
     public void fetch(String remoteName,
                       String branchName) throws IOException {
+        fetch(remoteName, branchName, 0, false);
+    }
+
+    /** Fetch BRANCHNAME from REMOTENAME. When DEPTH is positive, only the
+     *  last DEPTH commits of the branch (and the blobs they reference) are
+     *  transferred and the commits left without parents are recorded in
+     *  SHALLOW_FILE. If DEEPEN, the existing shallow boundaries are instead
+     *  extended DEPTH commits further into the past and the tracking
+     *  branch is left where it is, since the remote's current tip is not
+     *  fetched; a full fetch (DEPTH 0) completes them entirely. */
+    public void fetch(String remoteName, String branchName, int depth,
+                      boolean deepen) throws IOException {
         checkInitialized();
         String remotePath = remotes.get(remoteName);
         File remoteGitlet  = Utils.join(CWD, remotePath);
@@ -829,10 +1770,10 @@ public class GitletRepo implements Serializable {
             System.out.println("Remote directory not found.");
             System.exit(0);
         }
-        File remoteGitletRepoFile
-                = Utils.join(remoteGitlet, "gitletRepo");
-        GitletRepo remoteRepo = Utils.readObject(remoteGitletRepoFile,
-                GitletRepo.class);
+        RepoLock remoteLock = RepoLock.of(remoteGitlet);
+        remoteLock.lockShared(RepoLock.REMOTE_TIMEOUT);
+        Journal.recover(remoteGitlet);
+        GitletRepo remoteRepo = read(remoteGitlet);
         File remoteCommitFolder
                 = Utils.join(remoteGitlet, "commits");
         File remoteBlobsFolder
@@ -842,37 +1783,133 @@ public class GitletRepo implements Serializable {
             System.exit(0);
         }
         String newBranchName = remoteName + File.separator + branchName;
-        Commit remoteCurr = Utils.readObject(Utils.join(remoteCommitFolder,
-                remoteRepo.branches.get(remoteRepo.head)), Commit.class);
-        while (true) {
-            File newCommitFile = Utils.join(COMMIT_FOLDER,
-                    remoteCurr.getHash());
-            if (!newCommitFile.exists()) {
-                newCommitFile.createNewFile();
+        String remoteHeadHash = remoteRepo.branches.get(branchName);
+        long start = Stats.start();
+        GitletEvents.RemoteTransfer event =
+                new GitletEvents.RemoteTransfer();
+        event.begin();
+        long[] copied = new long[3];
+        if (!deepen) {
+            fetchCommits(remoteHeadHash, depth,
+                    remoteCommitFolder, remoteBlobsFolder, copied);
+        }
+        if (deepen || depth == 0) {
+            for (String boundary : new ArrayList<>(shallowCommits())) {
+                fetchCommits(boundary, deepen ? depth + 1 : 0,
+                        remoteCommitFolder, remoteBlobsFolder, copied);
+            }
+        }
+        event.end(remoteName, "fetch", copied[0], copied[1], copied[2]);
+        Stats.stop("fetch.copy", start);
+        remoteLock.unlock();
+        writeShallow();
+        if (!deepen) {
+            if (!this.branches.containsKey(newBranchName)) {
+                branch(newBranchName);
+            }
+            branches.put(newBranchName, remoteHeadHash);
+        }
+        Utils.writeObject(GITLET_REPO_FILE, this);
+    }
+
+    /** Copy the commit STARTHASH and its ancestors, with their manifests
+     *  and blobs, from REMOTECOMMITFOLDER, the manifests folder beside it
+     *  and REMOTEBLOBSFOLDER. The walk stops at commits whose history is
+     *  already complete locally and, if DEPTH is
+     *  positive, after DEPTH generations, marking the deepest commits as
+     *  shallow boundaries. The numbers of commits, blobs and blob bytes
+     *  copied are added to COPIED. */
+    private void fetchCommits(String startHash, int depth,
+                              File remoteCommitFolder,
+                              File remoteBlobsFolder,
+                              long[] copied) throws IOException {
+        TreeSet<String> shallow = shallowCommits();
+        ArrayDeque<String> hashes = new ArrayDeque<>();
+        ArrayDeque<Integer> dists = new ArrayDeque<>();
+        TreeSet<String> visited = new TreeSet<>();
+        hashes.add(startHash);
+        dists.add(0);
+        while (!hashes.isEmpty()) {
+            String hash = hashes.poll();
+            int dist = dists.poll();
+            File newCommitFile = Utils.join(COMMIT_FOLDER, hash);
+            if (!visited.add(hash)
+                    || (ObjectFilter.exists(newCommitFile)
+                        && !shallow.contains(hash))) {
+                continue;
             }
-            Utils.writeObject(newCommitFile, remoteCurr);
-            for (String blobKey: remoteCurr.getBlobs().keySet()) {
+            Commit remoteCurr = Commit.read(Utils.join(remoteCommitFolder,
+                    hash));
+            for (ObjectId blobHash : remoteCurr.getBlobs().values()) {
                 File blobFile = Utils.join(remoteBlobsFolder,
-                        remoteCurr.getBlobs().get(blobKey));
-                File newBlobFile = Utils.join(BLOBS_FOLDER,
-                        remoteCurr.getBlobs().get(blobKey));
-                if (!newBlobFile.exists()) {
-                    newBlobFile.createNewFile();
+                        blobHash.toString());
+                File newBlobFile = blobFile(blobHash);
+                if (!ObjectFilter.exists(newBlobFile)) {
+                    copied[1] += 1;
+                    copied[2] += ChunkedBlobs.copy(blobFile, newBlobFile);
                 }
-                Utils.writeContents(newBlobFile, Utils.readContents(blobFile));
             }
-            if (remoteCurr.getParentHash() == null) {
-                break;
+            if (!ObjectFilter.exists(newCommitFile)) {
+                copied[2] += copyManifest(remoteCurr.getManifest(),
+                        Utils.join(remoteCommitFolder.getParentFile(),
+                                Commit.MANIFESTS_NAME), MANIFESTS_FOLDER);
+                Utils.writeObject(newCommitFile, remoteCurr);
+                copied[0] += 1;
+            }
+            shallow.remove(hash);
+            for (String parent : new String[] {remoteCurr.getParentHash(),
+                remoteCurr.getParentHashMerge()}) {
+                if (parent == null) {
+                    continue;
+                }
+                boolean present = ObjectFilter.exists(
+                        Utils.join(COMMIT_FOLDER, parent));
+                if (depth > 0 && dist + 1 >= depth) {
+                    if (!present) {
+                        shallow.add(hash);
+                    }
+                } else {
+                    hashes.add(parent);
+                    dists.add(dist + 1);
+                }
             }
-            remoteCurr = Utils.readObject(Utils.join(remoteCommitFolder,
-                    remoteCurr.getParentHash()), Commit.class);
         }
-        if (!this.branches.containsKey(newBranchName)) {
-            branch(newBranchName);
+    }
+
+    /** Return the set of shallow boundary commits of this repository. */
+    private TreeSet<String> shallowCommits() {
+        if (shallowCommits == null) {
+            shallowCommits = new TreeSet<>();
+            if (SHALLOW_FILE.exists()) {
+                for (String line : Utils.readContentsAsString(SHALLOW_FILE)
+                        .split("\n")) {
+                    if (!line.isEmpty()) {
+                        shallowCommits.add(line);
+                    }
+                }
+            }
         }
-        branches.put(newBranchName, remoteRepo.branches.get(remoteRepo.head));
-        Utils.writeObject(remoteGitletRepoFile, remoteRepo);
-        Utils.writeObject(GITLET_REPO_FILE, this);
+        return shallowCommits;
+    }
+
+    /** Return true if COMMITHASH is a shallow boundary, i.e. its parents
+     *  are not present in this repository. */
+    public boolean isShallow(String commitHash) {
+        return shallowCommits().contains(commitHash);
+    }
+
+    /** Save the shallow boundaries, removing SHALLOW_FILE once the
+     *  history is complete. */
+    private void writeShallow() {
+        if (shallowCommits().isEmpty()) {
+            Journal.delete(SHALLOW_FILE);
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String hash : shallowCommits()) {
+            contents.append(hash).append("\n");
+        }
+        Utils.writeContents(SHALLOW_FILE, contents.toString());
     }
 
     public void pull(String remoteName, String branchName)
@@ -885,10 +1922,72 @@ public class GitletRepo implements Serializable {
     public Commit currentCommit() {
         String currentBranchHash = this.branches.get(head);
         File commitFile = Utils.join(COMMIT_FOLDER, currentBranchHash);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
+        Commit commit = Commit.read(commitFile);
         return commit;
     }
 
+    /** Return the names of the files in FOLDER, counting the listing. */
+    private static String[] list(File folder) {
+        Stats.listed(folder);
+        return folder.list();
+    }
+
+    /** Set branch BRANCH of the repository in the .gitlet folder ROOT
+     *  from EXPECTED to VALUE and, if EDIT is not null, apply it to the
+     *  rest of the repository state and save that, all under an exclusive
+     *  lock of ROOT.  Return the resulting state.  STATE is the state as
+     *  last read; if EDIT is given and the lock was not already held
+     *  exclusively, it is read again once the lock is taken.  If BRANCH
+     *  no longer points to EXPECTED, prints MESSAGE and exits without
+     *  changing anything.  The journal is committed before the lock is
+     *  released, so that recovery cannot undo a later update. */
+    static GitletRepo updateRef(File root, GitletRepo state, String branch,
+                                String expected, String value,
+                                Consumer<GitletRepo> edit, String message) {
+        RepoLock lock = RepoLock.of(root);
+        boolean held = lock.isExclusive();
+        if (!held) {
+            lock.lockExclusive(root.equals(GITLET_FOLDER)
+                    ? -1 : RepoLock.REMOTE_TIMEOUT);
+            if (edit != null) {
+                state = read(root);
+            }
+        }
+        if (!state.branches.compareAndSet(branch, expected, value)) {
+            System.out.println(message);
+            System.exit(0);
+        }
+        if (edit != null) {
+            edit.accept(state);
+            Utils.writeObject(Utils.join(root, GITLET_REPO_FILE.getName()),
+                    state);
+        }
+        if (!held) {
+            Journal.commitAll();
+            ObjectFilter.merge(root);
+            lock.unlock();
+        }
+        return state;
+    }
+
+    /** Return the state of the repository in the .gitlet folder ROOT. */
+    static GitletRepo read(File root) {
+        GitletRepo result = Utils.readObject(
+                Utils.join(root, GITLET_REPO_FILE.getName()),
+                GitletRepo.class);
+        result.branches = new Refs(root);
+        result.initialized = true;
+        return result;
+    }
+
+    /** Make this repository's state that of STATE. */
+    private void adopt(GitletRepo state) {
+        head = state.head;
+        branches = state.branches;
+        stagingArea = state.stagingArea;
+        remotes = state.remotes;
+    }
+
     public void checkInitialized() {
         if (!initialized) {
             System.out.println("Not in an initialized Gitlet directory.");
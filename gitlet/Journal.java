@@ -0,0 +1,448 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/** The write-ahead journal of one .gitlet folder, through which every
+ *  write into that folder goes.
+ *
+ *  A write is made atomically visible at once, by writing a temporary
+ *  file in the .gitlet folder and renaming it into place, but it is not
+ *  synced.  Instead the writes of a command are appended to the file
+ *  "journal" as one checksummed record, and the journal is synced once
+ *  when the command commits (group commit).  A record holds the contents
+ *  of each file written, except for objects larger than INLINE_LIMIT, or
+ *  written once the record already holds INLINE_BUDGET bytes of objects,
+ *  which are synced on their own before being renamed into place and are
+ *  recorded by name only.  So a command writing many objects, such as the
+ *  chunks of a large file, does not hold them all in memory.  Deletions
+ *  are recorded too.
+ *
+ *  Recovery, run before a repository is used, deletes stray temporary
+ *  files, drops a torn or corrupt record at the end of the journal, and
+ *  rewrites every file whose contents differ from the latest committed
+ *  record.  This replays committed commands whose files did not reach the
+ *  disk, and rolls back the state files of a command that crashed before
+ *  committing.  When the journal grows past CHECKPOINT_SIZE, the objects
+ *  it holds are synced and it is compacted to one record of the current
+ *  state files, so the latest committed state is always in the journal.
+ *  @author Arvind Vivekanandan
+ */
+class Journal {
+
+    /** Objects larger than this are synced individually rather than
+     *  copied into the journal. */
+    static final int INLINE_LIMIT = 256 * 1024;
+    /** Total size of the objects copied into one record, beyond which
+     *  further objects are synced individually. */
+    static final long INLINE_BUDGET = 1024 * 1024;
+    /** Journal size beyond which it is checkpointed. */
+    static final long CHECKPOINT_SIZE = 1024 * 1024;
+    /** Prefix of the names of temporary files. */
+    static final String TEMP_PREFIX = "tmp-";
+    /** Name of the journal file in a .gitlet folder. */
+    static final String JOURNAL_NAME = "journal";
+
+    /** Write CONTENTS to FILE.  Files inside a .gitlet folder are written
+     *  through that folder's journal; others are written directly. */
+    static void write(File file, byte[] contents) throws IOException {
+        Journal journal = of(file);
+        if (journal == null) {
+            Files.write(file.toPath(), contents);
+        } else {
+            journal.stage(file, contents);
+        }
+    }
+
+    /** Move the file TEMP, which must be in the same .gitlet folder, to
+     *  TARGET, as for write. */
+    static void move(File temp, File target) throws IOException {
+        Journal journal = of(target);
+        if (journal == null || temp.length() > INLINE_LIMIT) {
+            if (journal != null) {
+                force(temp.toPath());
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            if (journal != null) {
+                journal.pending(target, null);
+                if (isObject(target)) {
+                    ObjectFilter.added(target);
+                }
+            }
+        } else {
+            journal.stage(target, Files.readAllBytes(temp.toPath()));
+            temp.delete();
+        }
+    }
+
+    /** Delete FILE, recording the deletion in its journal if it is inside
+     *  a .gitlet folder.  Return true iff FILE was deleted. */
+    static boolean delete(File file) {
+        Journal journal = of(file);
+        boolean deleted = file.delete();
+        if (deleted && journal != null) {
+            journal.pending(file, DELETED);
+        }
+        return deleted;
+    }
+
+    /** Commit the writes of the current command in every journal. */
+    static synchronized void commitAll() {
+        for (Journal journal : JOURNALS.values()) {
+            try {
+                journal.commit();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Recover the repository whose .gitlet folder is ROOT, if it has a
+     *  journal, as described above.  Does nothing after the first
+     *  call for ROOT. */
+    static synchronized void recover(File root) {
+        Journal journal = JOURNALS.get(key(root));
+        if (journal != null) {
+            return;
+        }
+        journal = new Journal(root);
+        JOURNALS.put(key(root), journal);
+        try {
+            journal.recover();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the journal of the .gitlet folder containing FILE, or null
+     *  if FILE is not inside one. */
+    private static synchronized Journal of(File file) {
+        for (File dir = file.getAbsoluteFile().getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            if (dir.getName().equals(".gitlet")) {
+                Journal journal = JOURNALS.get(key(dir));
+                if (journal == null) {
+                    recover(dir);
+                    journal = JOURNALS.get(key(dir));
+                }
+                return journal;
+            }
+        }
+        return null;
+    }
+
+    /** Return the key of the .gitlet folder ROOT in JOURNALS. */
+    private static String key(File root) {
+        return root.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /** The journal of the .gitlet folder ROOT. */
+    private Journal(File root) {
+        _root = root.toPath().toAbsolutePath().normalize();
+        _file = _root.resolve(JOURNAL_NAME);
+    }
+
+    /** Write CONTENTS to FILE atomically and add it to the pending
+     *  record. */
+    private synchronized void stage(File file, byte[] contents)
+            throws IOException {
+        Path temp = temp(_root);
+        Files.write(temp, contents);
+        if (isObject(file)) {
+            if (contents.length > INLINE_LIMIT
+                || _inlined + contents.length > INLINE_BUDGET) {
+                force(temp);
+                contents = null;
+            } else {
+                _inlined += contents.length;
+            }
+        }
+        Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        pending(file, contents);
+        if (isObject(file)) {
+            ObjectFilter.added(file);
+        }
+    }
+
+    /** Add FILE, with CONTENTS, or null if it has been synced, to the
+     *  pending record. */
+    private synchronized void pending(File file, byte[] contents) {
+        if (_pending.isEmpty()) {
+            registerCommitHook();
+        }
+        _pending.put(relative(file), contents);
+    }
+
+    /** Append the pending record to the journal and sync it, then
+     *  checkpoint if the journal has grown too large. */
+    private synchronized void commit() throws IOException {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        byte[] record = record(_pending);
+        FileLock lock = RepoLock.of(_root.toFile()).lockJournal();
+        try (FileChannel channel = FileChannel.open(_file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(record));
+            channel.force(false);
+            if (channel.size() > CHECKPOINT_SIZE) {
+                checkpoint();
+            }
+        } finally {
+            lock.release();
+        }
+        _pending.clear();
+        _inlined = 0;
+    }
+
+    /** Sync every object and every file synced on its own named in the
+     *  journal, then replace the journal with one record of the current
+     *  contents of its other files. */
+    private void checkpoint() throws IOException {
+        LinkedHashMap<String, byte[]> state = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : latest().entrySet()) {
+            Path path = _root.resolve(entry.getKey());
+            if (!Files.exists(path)) {
+                continue;
+            }
+            if (entry.getValue() == null || isObject(path.toFile())) {
+                force(path);
+            } else {
+                state.put(entry.getKey(), Files.readAllBytes(path));
+            }
+        }
+        Path temp = temp(_root);
+        Files.write(temp, record(state));
+        force(temp);
+        Files.move(temp, _file, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Recover this journal's repository. */
+    private void recover() throws IOException {
+        if (!Files.isDirectory(_root)) {
+            return;
+        }
+        FileLock lock = RepoLock.of(_root.toFile()).lockJournal();
+        try {
+            replay();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /** Recover this journal's repository, holding the journal lock.
+     *  Temporary files are only deleted under an exclusive lock of the
+     *  repository, as otherwise they may belong to a running command. */
+    private void replay() throws IOException {
+        File[] temps = _root.toFile().listFiles((dir, name) ->
+                name.startsWith(TEMP_PREFIX));
+        if (temps != null && RepoLock.of(_root.toFile()).isExclusive()) {
+            for (File temp : temps) {
+                temp.delete();
+            }
+        }
+        if (!Files.exists(_file)) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> entry : latest().entrySet()) {
+            Path path = _root.resolve(entry.getKey());
+            byte[] contents = entry.getValue();
+            if (contents == DELETED) {
+                Files.deleteIfExists(path);
+            } else if (contents != null && !intact(path, contents)) {
+                Path temp = temp(_root);
+                Files.write(temp, contents);
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /** Return true iff the file at PATH holds CONTENTS.  Objects are
+     *  named by their contents, so only their lengths are compared. */
+    private static boolean intact(Path path, byte[] contents)
+            throws IOException {
+        if (!Files.exists(path) || Files.size(path) != contents.length) {
+            return false;
+        }
+        return isObject(path.toFile())
+            || Arrays.equals(Files.readAllBytes(path), contents);
+    }
+
+    /** Return the latest contents recorded for each file by the intact
+     *  records of the journal, truncating the journal after the last of
+     *  them. */
+    private LinkedHashMap<String, byte[]> latest() throws IOException {
+        LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+        byte[] journal = Files.readAllBytes(_file);
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(journal));
+        long good = 0;
+        try {
+            while (good < journal.length) {
+                int length = in.readInt();
+                long checksum = in.readLong();
+                if (length < 0 || length > journal.length - good - 12) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                result.putAll(entries(payload));
+                good += 12 + length;
+            }
+        } catch (EOFException excp) {
+            /* A torn record: ignore it. */
+        }
+        if (good < journal.length) {
+            try (FileChannel channel = FileChannel.open(_file,
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+                channel.force(false);
+            }
+        }
+        return result;
+    }
+
+    /** Return the record of the files and contents in ENTRIES: its
+     *  length, its CRC-32 and then the entries. */
+    private static byte[] record(Map<String, byte[]> entries)
+            throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            byte[] contents = entry.getValue();
+            if (contents == DELETED) {
+                out.writeInt(-2);
+            } else if (contents == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(contents.length);
+                out.write(contents);
+            }
+        }
+        out.close();
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(record);
+        header.writeInt(payload.size());
+        header.writeLong(crc.getValue());
+        payload.writeTo(header);
+        header.close();
+        return record.toByteArray();
+    }
+
+    /** Return the entries of the record payload PAYLOAD. */
+    private static LinkedHashMap<String, byte[]> entries(byte[] payload)
+            throws IOException {
+        LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(payload));
+        int count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            String path = in.readUTF();
+            int length = in.readInt();
+            byte[] contents = length == -2 ? DELETED : null;
+            if (length >= 0) {
+                contents = new byte[length];
+                in.readFully(contents);
+            }
+            result.put(path, contents);
+        }
+        return result;
+    }
+
+    /** Return true iff FILE is an immutable, content-addressed object. */
+    private static boolean isObject(File file) {
+        String folder = file.getParentFile().getName();
+        return folder.equals("commits") || folder.equals("blobs")
+            || folder.equals(ChunkedBlobs.CHUNKS_NAME)
+            || folder.equals(Commit.MANIFESTS_NAME);
+    }
+
+    /** Return the path of a new temporary file in ROOT. */
+    static Path temp(Path root) throws IOException {
+        while (true) {
+            Path temp = root.resolve(TEMP_PREFIX
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Sync the file at PATH to disk. */
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /** Return the name of FILE relative to this journal's folder. */
+    private String relative(File file) {
+        return _root.relativize(file.toPath().toAbsolutePath().normalize())
+            .toString();
+    }
+
+    /** Arrange for all journals to commit when the JVM exits, including
+     *  by System.exit. */
+    private static synchronized void registerCommitHook() {
+        if (!_hooked) {
+            _hooked = true;
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(Journal::commitAll));
+        }
+    }
+
+    /** Marks a deleted file in a record. */
+    private static final byte[] DELETED = new byte[0];
+    /** Journals by the absolute path of their .gitlet folder. */
+    private static final HashMap<String, Journal> JOURNALS = new HashMap<>();
+    /** True once the commit hook has been registered. */
+    private static boolean _hooked;
+
+    /** The .gitlet folder of this journal. */
+    private final Path _root;
+    /** The journal file. */
+    private final Path _file;
+    /** Files written by the current command, with their contents, or
+     *  null for synced objects. */
+    private final LinkedHashMap<String, byte[]> _pending =
+        new LinkedHashMap<>();
+    /** Total size of the objects copied into the pending record. */
+    private long _inlined;
+}
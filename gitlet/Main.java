@@ -1,15 +1,20 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Arvind Vivekanandan
  */
 public class Main {
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+    /** Usage: java gitlet.Main [--trace[=FILE]] ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> ....  --trace reports instrumentation, as
+     *  described in Stats. */
     public static void main(String... args) throws IOException {
+        args = Stats.configure(args);
+        GitletEvents.commandStarted(args);
         checkCommandInputted(args);
+        RepoLock.lockFor(args[0]);
         GitletRepo repo = new GitletRepo();
         switch (args[0]) {
         case "init":
@@ -28,8 +33,7 @@ public class Main {
             checkoutCase(repo, args);
             break;
         case "log":
-            validateNumArgs(args, 1);
-            repo.log();
+            logCase(repo, args);
             break;
         case "global-log":
             validateNumArgs(args, 1);
@@ -60,13 +64,32 @@ public class Main {
             repo.reset(args[1]);
             break;
         case "merge":
+            mergeCase(repo, args);
+            break;
+        case "repack":
+            validateNumArgs(args, 1);
+            repo.repack();
+            break;
+        case "gc":
+            gcCase(repo, args);
+            break;
+        case "diff":
+            diffCase(repo, args);
+            break;
+        case "blame":
             validateNumArgs(args, 2);
-            repo.merge(args[1]);
+            repo.blame(args[1]);
+            break;
+        case "monitor":
+            validateNumArgs(args, 1);
+            repo.monitor();
             break;
         default:
             extraCreditRemoteCommands(repo, args);
         }
-        return;
+        ObjectFilter.saveAll();
+        Journal.commitAll();
+        GitletEvents.commandFinished();
     }
 
     public static void exitWithError(String message) {
@@ -83,6 +106,16 @@ public class Main {
         }
     }
 
+    public static void logCase(GitletRepo repo, String[] args) {
+        if (args.length == 1) {
+            repo.log();
+        } else if (args.length == 3 && args[1].equals("--")) {
+            repo.logPath(args[2]);
+        } else {
+            exitWithError("Incorrect operands.");
+        }
+    }
+
     public static void checkoutCase(GitletRepo repo, String[] args)
             throws IOException {
         if (args.length == 2) {
@@ -96,6 +129,73 @@ public class Main {
         }
     }
 
+    public static void mergeCase(GitletRepo repo, String[] args)
+            throws IOException {
+        if (args.length == 2) {
+            repo.merge(args[1]);
+        } else if (args.length == 4 && args[1].equals("--into")) {
+            repo.mergeInto(args[2], args[3]);
+        } else {
+            validateNumArgs(args, 2);
+        }
+    }
+
+    public static void fetchCase(GitletRepo repo, String[] args)
+            throws IOException {
+        if (args.length == 3) {
+            repo.fetch(args[1], args[2]);
+        } else if (args.length == 5 && (args[1].equals("--depth")
+                || args[1].equals("--deepen"))) {
+            int depth = 0;
+            try {
+                depth = Integer.parseInt(args[2]);
+            } catch (NumberFormatException excp) {
+                exitWithError("Incorrect operands.");
+            }
+            if (depth <= 0) {
+                exitWithError("Incorrect operands.");
+            }
+            repo.fetch(args[3], args[4], depth, args[1].equals("--deepen"));
+        } else {
+            exitWithError("Incorrect operands.");
+        }
+    }
+
+    public static void gcCase(GitletRepo repo, String[] args) {
+        if (args.length == 1) {
+            repo.gc(GitletRepo.GC_GRACE_SECONDS);
+        } else if (args.length == 3 && args[1].equals("--grace")) {
+            long grace = -1;
+            try {
+                grace = Long.parseLong(args[2]);
+            } catch (NumberFormatException excp) {
+                exitWithError("Incorrect operands.");
+            }
+            if (grace < 0) {
+                exitWithError("Incorrect operands.");
+            }
+            repo.gc(grace);
+        } else {
+            exitWithError("Incorrect operands.");
+        }
+    }
+
+    public static void diffCase(GitletRepo repo, String[] args) {
+        ArrayList<String> revs = new ArrayList<>();
+        String path = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--") && i == args.length - 2) {
+                path = args[i + 1];
+                break;
+            }
+            revs.add(args[i]);
+        }
+        if (revs.size() > 2 || revs.contains("--")) {
+            exitWithError("Incorrect operands.");
+        }
+        repo.diff(revs, path);
+    }
+
     public static void checkCommandInputted(String[] args) {
         if (args.length == 0) {
             exitWithError("Please enter a command.");
@@ -119,8 +219,7 @@ public class Main {
             repo.push(args[1], args[2]);
             break;
         case "fetch":
-            validateNumArgs(args, 3);
-            repo.fetch(args[1], args[2]);
+            fetchCase(repo, args);
             break;
         case "pull":
             validateNumArgs(args, 3);
@@ -0,0 +1,323 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** The file system monitor of a working tree, which lets status and add
+ *  find changed files without reading every file.
+ *
+ *  The command "monitor" runs a monitor until it is killed.  It watches
+ *  every folder of the working tree with a WatchService and gives each
+ *  path that changes the next number of a sequence, which it writes,
+ *  with a random id of the monitor's session, to the file STATE_NAME in
+ *  the .gitlet folder.  A watcher overflow, or a change to the ignore
+ *  file, is recorded as the sequence number before which nothing is
+ *  known.  The monitor holds RepoLock.MONITOR while it runs.
+ *
+ *  A command calling hashes first synchronizes with the monitor: it
+ *  creates a cookie file in COOKIES_NAME and waits for the monitor to see
+ *  it, write its state and delete it, so that every change made before
+ *  the call is in the state.  It then updates the SHA-1 hashes of the
+ *  working files kept in CACHE_NAME, with the sequence number they are
+ *  current for, by hashing only the paths changed since then.  If no
+ *  monitor is running, it does not answer in time, its session is not
+ *  that of the cache, or it has overflowed, the cache is rebuilt from a
+ *  full scan, or the caller scans itself.
+ *  @author Arvind Vivekanandan
+ */
+class Monitor {
+
+    /** Name of the monitor's state file in a .gitlet folder. */
+    static final String STATE_NAME = "monitor";
+    /** Name of the folder of cookies in a .gitlet folder. */
+    static final String COOKIES_NAME = "monitor-cookies";
+    /** Name of the hash cache in a .gitlet folder. */
+    static final String CACHE_NAME = "monitor-cache";
+    /** Milliseconds to wait for the monitor to see a cookie. */
+    static final long SYNC_TIMEOUT = 2000;
+
+    /** Return the SHA-1 hash of every file in TREE, the working tree of
+     *  the .gitlet folder GITLET, kept up to date with the monitor, or
+     *  null if there is no monitor that can be used. */
+    static TreeMap<String, ObjectId> hashes(File gitlet, WorkingTree tree) {
+        if (!RepoLock.of(gitlet).isMonitored()) {
+            return null;
+        }
+        String[] state = sync(gitlet);
+        if (state == null) {
+            return null;
+        }
+        String[] header = state[0].split(" ");
+        String session = header[0];
+        long seq = Long.parseLong(header[1]);
+        long overflow = Long.parseLong(header[2]);
+        File cacheFile = Utils.join(gitlet, CACHE_NAME);
+        Cache cache = cacheFile.isFile()
+            ? Utils.readObject(cacheFile, Cache.class) : null;
+        if (cache == null || !cache.session.equals(session)
+            || overflow > cache.seq) {
+            cache = new Cache();
+            cache.session = session;
+            cache.hashes = scan(tree, "");
+        } else {
+            ArrayList<String> dirty = new ArrayList<>();
+            for (int i = 1; i < state.length; i += 1) {
+                int space = state[i].indexOf(' ');
+                if (Long.parseLong(state[i].substring(0, space))
+                    > cache.seq) {
+                    dirty.add(state[i].substring(space + 1));
+                }
+            }
+            if (dirty.isEmpty()) {
+                return cache.hashes;
+            }
+            for (String name : dirty) {
+                refresh(cache.hashes, tree, name);
+            }
+        }
+        cache.seq = seq;
+        replace(cacheFile, Utils.serialize(cache));
+        return cache.hashes;
+    }
+
+    /** Return the lines of the monitor's state in GITLET once it has seen
+     *  a new cookie, or null if it does not in time. */
+    private static String[] sync(File gitlet) {
+        File cookie = Utils.join(gitlet, COOKIES_NAME, Long.toHexString(
+                ThreadLocalRandom.current().nextLong()));
+        try {
+            Files.createFile(cookie.toPath());
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            while (cookie.exists()) {
+                if (System.currentTimeMillis() > deadline) {
+                    cookie.delete();
+                    return null;
+                }
+                Thread.sleep(1);
+            }
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        }
+        return Utils.readContentsAsString(Utils.join(gitlet, STATE_NAME))
+            .split("\n");
+    }
+
+    /** Update HASHES for a change to the path NAME of TREE: a file, a
+     *  folder, or nothing any longer. */
+    private static void refresh(TreeMap<String, ObjectId> hashes,
+                                WorkingTree tree, String name) {
+        hashes.subMap(name + File.separator,
+                name + File.separator + Character.MAX_VALUE).clear();
+        hashes.remove(name);
+        File file = Utils.join(tree.root(), name);
+        if (file.isFile() && !tree.isIgnored(name, false)) {
+            hashes.put(name, Utils.sha1Id(Utils.readContents(file)));
+        } else if (file.isDirectory() && !tree.isIgnored(name, true)) {
+            hashes.putAll(scan(tree, name));
+        }
+    }
+
+    /** Return the hashes of the files of TREE under FOLDER. */
+    private static TreeMap<String, ObjectId> scan(WorkingTree tree,
+                                                  String folder) {
+        Map<String, ObjectId> result = new ConcurrentHashMap<>();
+        tree.forEach(folder, name -> result.put(name, Utils.sha1Id(
+                Utils.readContents(Utils.join(tree.root(), name)))));
+        return new TreeMap<>(result);
+    }
+
+    /** Replace FILE with CONTENTS atomically.  Monitor files are only
+     *  caches, so this bypasses the journal. */
+    private static void replace(File file, byte[] contents) {
+        try {
+            Path temp = Journal.temp(file.getParentFile().toPath());
+            Files.write(temp, contents);
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The hashes of the working files as of a monitor state. */
+    private static class Cache implements Serializable {
+        /** The monitor session. */
+        private String session;
+        /** The sequence number up to which the hashes are current. */
+        private long seq;
+        /** The hash of each file. */
+        private TreeMap<String, ObjectId> hashes;
+    }
+
+    /** A monitor of TREE, the working tree of the .gitlet folder
+     *  GITLET. */
+    Monitor(File gitlet, WorkingTree tree) {
+        _gitlet = gitlet;
+        _tree = tree;
+        _cookies = Utils.join(gitlet, COOKIES_NAME);
+        _session = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /** Watch the working tree until killed.  Exits with an error if
+     *  another monitor is running. */
+    void run() throws IOException, InterruptedException {
+        FileLock lock = RepoLock.of(_gitlet).lockMonitor();
+        if (lock == null) {
+            System.out.println("A monitor is already running.");
+            System.exit(0);
+        }
+        _watcher = FileSystems.getDefault().newWatchService();
+        _cookies.mkdirs();
+        for (File cookie : _cookies.listFiles()) {
+            cookie.delete();
+        }
+        _cookieKey = _cookies.toPath().register(_watcher,
+                StandardWatchEventKinds.ENTRY_CREATE);
+        register("");
+        flush();
+        while (true) {
+            WatchKey key = _watcher.take();
+            while (key != null) {
+                handle(key);
+                key = _watcher.poll();
+            }
+            flush();
+        }
+    }
+
+    /** Record the events of KEY. */
+    private void handle(WatchKey key) throws IOException {
+        String prefix = _keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                _overflow = ++_seq;
+                continue;
+            }
+            Path context = (Path) event.context();
+            if (key == _cookieKey) {
+                _synced.add(Utils.join(_cookies, context.toString()));
+                continue;
+            }
+            if (prefix == null) {
+                continue;
+            }
+            String name = prefix + context;
+            if (name.equals(".gitlet")) {
+                continue;
+            }
+            if (name.equals(WorkingTree.IGNORE_NAME)) {
+                _tree = new WorkingTree(_tree.root());
+                _overflow = ++_seq;
+                register("");
+            }
+            File file = Utils.join(_tree.root(), name);
+            boolean folder = Files.isDirectory(file.toPath(),
+                    LinkOption.NOFOLLOW_LINKS);
+            if (_tree.isIgnored(name, folder)) {
+                continue;
+            }
+            if (folder
+                && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                register(name);
+            }
+            _dirty.put(name, ++_seq);
+        }
+        if (!key.reset()) {
+            _keys.remove(key);
+        }
+    }
+
+    /** Watch FOLDER of the working tree ("" for all of it) and its
+     *  subfolders that are not ignored. */
+    private void register(String folder) throws IOException {
+        Path root = _tree.root().toPath();
+        Files.walkFileTree(Utils.join(_tree.root(), folder).toPath(),
+            new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir, BasicFileAttributes attributes)
+                        throws IOException {
+                    String name = root.relativize(dir).toString();
+                    if (name.equals(".gitlet")
+                        || !name.isEmpty() && _tree.isIgnored(name, true)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = dir.register(_watcher,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    _keys.put(key, name.isEmpty() ? ""
+                            : name + File.separator);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                                                       IOException excp) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    /** Write the state, and then acknowledge the cookies seen. */
+    private void flush() throws IOException {
+        StringBuilder state = new StringBuilder();
+        state.append(_session).append(' ').append(_seq).append(' ')
+            .append(_overflow).append('\n');
+        for (Map.Entry<String, Long> entry : _dirty.entrySet()) {
+            state.append(entry.getValue()).append(' ')
+                .append(entry.getKey()).append('\n');
+        }
+        replace(Utils.join(_gitlet, STATE_NAME),
+                state.toString().getBytes(StandardCharsets.UTF_8));
+        for (File cookie : _synced) {
+            cookie.delete();
+        }
+        _synced.clear();
+    }
+
+    /** The .gitlet folder. */
+    private final File _gitlet;
+    /** The working tree watched. */
+    private WorkingTree _tree;
+    /** The folder of cookies. */
+    private final File _cookies;
+    /** The id of this session. */
+    private final String _session;
+    /** The watcher. */
+    private WatchService _watcher;
+    /** The key of the cookie folder. */
+    private WatchKey _cookieKey;
+    /** The prefix of the names in the folder of each key. */
+    private final HashMap<WatchKey, String> _keys = new HashMap<>();
+    /** The last sequence number given to a change. */
+    private long _seq;
+    /** The sequence number of the last overflow, before which changes may
+     *  have been missed. */
+    private long _overflow;
+    /** The sequence number of the last change to each path. */
+    private final TreeMap<String, Long> _dirty = new TreeMap<>();
+    /** Cookies seen since the last flush. */
+    private final ArrayList<File> _synced = new ArrayList<>();
+}
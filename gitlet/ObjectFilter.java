@@ -0,0 +1,355 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** A Bloom filter of the objects (commits, blobs and chunks) in one
+ *  .gitlet folder, so that checking for an object that is not there,
+ *  which copying objects into a repository does for each one, seldom
+ *  costs a trip to the file system.  Only exists is used for that: the
+ *  filter may answer that an absent object might be present, and then
+ *  the file is checked, but never that a present one is absent.
+ *
+ *  A filter is loaded when a process first checks for an object in a
+ *  repository, from the file FILTER_NAME in its .gitlet folder, and kept
+ *  for the rest of the process.  Every object written through the
+ *  Journal is added to it.  The file records the modification times of
+ *  the object folders when it was saved; if any has changed since, the
+ *  objects were written or deleted by a process that did not save the
+ *  filter, and it is rebuilt by listing the folders.  A filter is
+ *  saved whole by a process that held its repository exclusively from
+ *  loading it to saving it, as no other process could then have added
+ *  objects that it lacks.  One that wrote objects holding the
+ *  repository shared merges them while it holds it exclusively to move
+ *  a ref: into its own filter if the file is as it was when loaded, and
+ *  otherwise into the filter saved since by another process.  Objects
+ *  of a process that has not yet merged them may be missing meanwhile,
+ *  which costs only writing them again, as exists is used only to skip
+ *  writing an object.  No filter is saved when a folder's time is too
+ *  recent to tell from that of a later change on a file system that
+ *  keeps times only to the second; the file is deleted instead, so
+ *  that no process merges into a filter that lacks the objects.
+ *  @author Arvind Vivekanandan
+ */
+class ObjectFilter {
+
+    /** Name of the filter file in a .gitlet folder. */
+    static final String FILTER_NAME = "object-filter";
+    /** Names of the object folders in a .gitlet folder. */
+    static final String[] FOLDERS = {"commits", "blobs",
+        ChunkedBlobs.CHUNKS_NAME, Commit.MANIFESTS_NAME};
+    /** Bits of the filter per object it is sized for, giving about one
+     *  false positive in a hundred. */
+    static final int BITS_PER_OBJECT = 10;
+    /** Number of bits set for each object. */
+    static final int HASHES = 7;
+    /** Milliseconds within which a whole-second folder time may hide a
+     *  later change. */
+    static final long RACY_MILLIS = 2000;
+
+    /** Return true iff FILE, an object file, exists, checking it only if
+     *  the filter of its repository does not rule it out. */
+    static boolean exists(File file) {
+        ObjectFilter filter = FILTERS.computeIfAbsent(key(root(file)),
+            k -> load(root(file)));
+        if (!filter.mightContain(file)) {
+            return false;
+        }
+        return file.exists();
+    }
+
+    /** Note that the object FILE has been written. */
+    static void added(File file) {
+        ObjectFilter filter = FILTERS.get(key(root(file)));
+        if (filter != null) {
+            filter.add(file);
+        }
+    }
+
+    /** Save the objects this process added to the filter of the .gitlet
+     *  folder ROOT, which it now holds exclusively, though it may have
+     *  written them holding ROOT shared. */
+    static void merge(File root) {
+        ObjectFilter filter = FILTERS.get(key(root));
+        if (filter != null) {
+            filter.merge();
+        }
+    }
+
+    /** Save every filter changed by this process that may be saved. */
+    static void saveAll() {
+        for (ObjectFilter filter : FILTERS.values()) {
+            filter.save();
+        }
+    }
+
+    /** Return the filter of the .gitlet folder ROOT, as saved if it is
+     *  current and otherwise rebuilt. */
+    private static ObjectFilter load(File root) {
+        boolean exclusive = RepoLock.of(root).isExclusive();
+        long[] times = times(root);
+        ObjectFilter saved = read(root, exclusive);
+        if (saved != null && Arrays.equals(saved._saved, times)) {
+            return saved;
+        }
+        ObjectFilter result = rebuild(root, exclusive);
+        result._saved = saved == null ? null : saved._saved;
+        return result;
+    }
+
+    /** Return the filter saved in the .gitlet folder ROOT, current or
+     *  not, which is TRUSTED as for the constructor, or null if there is
+     *  none or it cannot be read. */
+    private static ObjectFilter read(File root, boolean trusted) {
+        File file = Utils.join(root, FILTER_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(file.toPath()))) {
+            long[] times = new long[FOLDERS.length];
+            for (int i = 0; i < times.length; i += 1) {
+                times[i] = in.readLong();
+            }
+            int count = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length > file.length() / 8) {
+                return null;
+            }
+            long[] bits = new long[length];
+            for (int i = 0; i < bits.length; i += 1) {
+                bits[i] = in.readLong();
+            }
+            ObjectFilter result = new ObjectFilter(root, bits, count,
+                    trusted, false);
+            result._saved = times;
+            return result;
+        } catch (IOException excp) {
+            /* A torn or foreign file: rebuild it. */
+            return null;
+        }
+    }
+
+    /** Return a filter of the objects now in the .gitlet folder ROOT,
+     *  sized for twice as many, which is TRUSTED as for the
+     *  constructor. */
+    private static ObjectFilter rebuild(File root, boolean trusted) {
+        String[][] names = new String[FOLDERS.length][];
+        int total = 0;
+        for (int i = 0; i < FOLDERS.length; i += 1) {
+            names[i] = Utils.join(root, FOLDERS[i]).list();
+            if (names[i] == null) {
+                names[i] = new String[0];
+            }
+            total += names[i].length;
+        }
+        ObjectFilter filter = new ObjectFilter(root,
+                new long[Math.max(16, 2 * total * BITS_PER_OBJECT / 64)],
+                0, trusted, true);
+        for (int i = 0; i < FOLDERS.length; i += 1) {
+            for (String name : names[i]) {
+                filter.set(FOLDERS[i], name);
+            }
+        }
+        return filter;
+    }
+
+    /** A filter of the objects of ROOT with the bit set BITS, holding
+     *  COUNT objects.  It is TRUSTED if it was loaded with ROOT held
+     *  exclusively, and CHANGED if it differs from the saved one. */
+    private ObjectFilter(File root, long[] bits, int count,
+                         boolean trusted, boolean changed) {
+        _root = root;
+        _bits = bits;
+        _count = count;
+        _trusted = trusted;
+        _changed = changed;
+    }
+
+    /** Return false if the object FILE is surely absent. */
+    private synchronized boolean mightContain(File file) {
+        long[] hash = hash(file.getParentFile().getName(), file.getName());
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(hash[0] + i * hash[1],
+                    _bits.length * 64L);
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add the object FILE. */
+    private void add(File file) {
+        add(file.getParentFile().getName(), file.getName());
+    }
+
+    /** Add the object NAME of the object folder FOLDER, noting it for a
+     *  later merge. */
+    private synchronized void add(String folder, String name) {
+        set(folder, name);
+        _changed = true;
+        _added.add(new String[] {folder, name});
+    }
+
+    /** Set the bits of the object NAME of the object folder FOLDER. */
+    private void set(String folder, String name) {
+        long[] hash = hash(folder, name);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(hash[0] + i * hash[1],
+                    _bits.length * 64L);
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        _count += 1;
+    }
+
+    /** Save this filter if it has changed and may be saved. */
+    private synchronized void save() {
+        if (!_changed || !_trusted
+            || !RepoLock.of(_root).isExclusive()) {
+            return;
+        }
+        write(this);
+    }
+
+    /** Save the objects added to this filter, whose repository is held
+     *  exclusively, with this filter if the file is unchanged since it
+     *  was loaded and otherwise with the filter saved there since. */
+    private synchronized void merge() {
+        if (!_changed) {
+            return;
+        }
+        ObjectFilter saved = read(_root, true);
+        if (Arrays.equals(saved == null ? null : saved._saved, _saved)) {
+            write(this);
+        } else if (saved != null) {
+            for (String[] object : _added) {
+                saved.set(object[0], object[1]);
+            }
+            write(saved);
+        }
+    }
+
+    /** Write FILTER, which holds every object now in its repository, or
+     *  all but those of processes that will merge theirs, as the saved
+     *  filter of this one's repository, rebuilt first if it holds more
+     *  objects than it was sized for.  Delete the saved filter instead
+     *  if the folder times are too recent to record. */
+    private void write(ObjectFilter filter) {
+        long[] times = times(_root);
+        long now = System.currentTimeMillis();
+        for (long time : times) {
+            if (time % TimeUnit.SECONDS.toNanos(1) == 0
+                && now - TimeUnit.NANOSECONDS.toMillis(time) < RACY_MILLIS) {
+                Utils.join(_root, FILTER_NAME).delete();
+                return;
+            }
+        }
+        ObjectFilter saved =
+            filter._count > filter._bits.length * 64L / BITS_PER_OBJECT
+            ? rebuild(_root, true) : filter;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (long time : times) {
+                out.writeLong(time);
+            }
+            out.writeInt(saved._count);
+            out.writeInt(saved._bits.length);
+            for (long word : saved._bits) {
+                out.writeLong(word);
+            }
+            out.close();
+            Path temp = Journal.temp(_root.toPath());
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, Utils.join(_root, FILTER_NAME).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            _changed = false;
+            _added.clear();
+            _saved = times;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the modification times of the object folders of ROOT, in
+     *  nanoseconds, with -1 for those that do not exist. */
+    private static long[] times(File root) {
+        long[] result = new long[FOLDERS.length];
+        for (int i = 0; i < FOLDERS.length; i += 1) {
+            try {
+                FileTime time = Files.getLastModifiedTime(
+                        Utils.join(root, FOLDERS[i]).toPath());
+                result[i] = time.to(TimeUnit.NANOSECONDS);
+            } catch (IOException excp) {
+                result[i] = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Return two independent 64-bit hashes of NAME in FOLDER. */
+    private static long[] hash(String folder, String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < folder.length(); i += 1) {
+            h = (h ^ folder.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ '/') * 0x100000001b3L;
+        for (int i = 0; i < name.length(); i += 1) {
+            h = (h ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        return new long[] {mix(h), mix(h + 0x9e3779b97f4a7c15L) | 1};
+    }
+
+    /** Return X with its bits well mixed. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** Return the .gitlet folder of the object file FILE. */
+    private static File root(File file) {
+        return file.getAbsoluteFile().getParentFile().getParentFile();
+    }
+
+    /** Return the key of the .gitlet folder ROOT in FILTERS. */
+    private static String key(File root) {
+        return root.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /** The filters of the repositories used, by the paths of their
+     *  .gitlet folders. */
+    private static final ConcurrentHashMap<String, ObjectFilter> FILTERS =
+        new ConcurrentHashMap<>();
+
+    /** The .gitlet folder. */
+    private final File _root;
+    /** The bits of the filter. */
+    private final long[] _bits;
+    /** The number of objects added. */
+    private int _count;
+    /** True iff the repository was held exclusively when this was
+     *  loaded. */
+    private final boolean _trusted;
+    /** True iff this differs from the saved filter. */
+    private boolean _changed;
+    /** The folder and name of each object added since this was loaded or
+     *  last saved. */
+    private final ArrayList<String[]> _added = new ArrayList<>();
+    /** The folder times recorded in the saved filter when this was loaded
+     *  or last saved, or null if there was none. */
+    private long[] _saved;
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.Serializable;
+
+/** The SHA-1 hash naming a blob, held as its 20 bytes rather than as a
+ *  40-digit hexadecimal String.  An ObjectId takes 32 bytes of heap where
+ *  the String took about 100, compares as two longs and an int, and
+ *  serializes as 20 bytes, so the blob maps of commits and of the staging
+ *  area, which hold one per file, shrink accordingly.  Hexadecimal is
+ *  produced only for file names and output, by toString, and parsed only
+ *  from them, by fromHex.
+ *
+ *  The hash code is the first four bytes of the hash, which are as well
+ *  distributed as any code computed from them, so there is nothing to
+ *  compute or cache.  IDs are ordered as their hexadecimal forms are.
+ *  @author Arvind Vivekanandan
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Length in bytes of an ID. */
+    static final int BYTES = 20;
+    /** The ID of all zeros, which names no object. */
+    static final ObjectId ZERO = new ObjectId(0, 0, 0);
+
+    /** Return the ID whose bytes are the first BYTES of DIGEST. */
+    static ObjectId of(byte[] digest) {
+        return new ObjectId(word(digest, 0), word(digest, 8),
+                (int) (word(digest, 12) & 0xffffffffL));
+    }
+
+    /** Return the ID written in hexadecimal as HEX, or null if HEX is not
+     *  a full hash. */
+    static ObjectId fromHex(String hex) {
+        if (hex == null || hex.length() != 2 * BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return of(bytes);
+    }
+
+    /** Return BYTES written in lower-case hexadecimal. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** The ID whose bytes are those of W0, W1 and W2, from the most
+     *  significant. */
+    private ObjectId(long w0, long w1, int w2) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+    }
+
+    /** Return the bytes of this ID. */
+    byte[] toBytes() {
+        byte[] result = new byte[BYTES];
+        for (int i = 0; i < 8; i += 1) {
+            result[i] = (byte) (_w0 >>> (56 - 8 * i));
+            result[8 + i] = (byte) (_w1 >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i += 1) {
+            result[16 + i] = (byte) (_w2 >>> (24 - 8 * i));
+        }
+        return result;
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(_w0, other._w0);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(_w1, other._w1);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(_w2, other._w2);
+        }
+        return cmp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (_w0 >>> 32);
+    }
+
+    /** Return this ID in hexadecimal. */
+    @Override
+    public String toString() {
+        return toHex(toBytes());
+    }
+
+    /** Return the eight bytes of BYTES from START as a long, most
+     *  significant first. */
+    private static long word(byte[] bytes, int start) {
+        long result = 0;
+        for (int i = start; i < start + 8; i += 1) {
+            result = result << 8 | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** The hexadecimal digits. */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The first eight bytes. */
+    private final long _w0;
+    /** The next eight bytes. */
+    private final long _w1;
+    /** The last four bytes. */
+    private final int _w2;
+}
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/** Reachability bitmaps over a stable numbering of the objects (commits
+ *  and blobs) of a repository. Bit I of a commit's bitmap is set iff the
+ *  object numbered I is reachable from that commit, so set differences
+ *  such as "objects in A but not in B" are a single AND-NOT. Numbers are
+ *  only ever appended, so a stored bitmap stays valid as the repository
+ *  grows; only removing objects requires rebuilding the index.
+ *  @author Arvind Vivekanandan
+ */
+public class ReachabilityBitmaps implements Serializable {
+    /** Hash of each numbered object, indexed by its number. */
+    private ArrayList<String> objects;
+    /** Numbers of the objects that are commits rather than blobs. */
+    private BitSet commitObjects;
+    /** Stored bitmaps, keyed by commit hash. */
+    private TreeMap<String, BitSet> bitmaps;
+    /** Number of each object, rebuilt from OBJECTS after loading. */
+    private transient HashMap<String, Integer> positions;
+    /** Folder the commits described by this index are read from. */
+    private transient File commitFolder;
+
+    /** An empty index over the commits in COMMITFOLDER. */
+    public ReachabilityBitmaps(File commitFolder) {
+        this.objects = new ArrayList<>();
+        this.commitObjects = new BitSet();
+        this.bitmaps = new TreeMap<>();
+        this.positions = new HashMap<>();
+        this.commitFolder = commitFolder;
+    }
+
+    /** Return the index stored in BITMAPFILE describing the commits in
+     *  COMMITFOLDER, or an empty one if none has been written. */
+    public static ReachabilityBitmaps load(File bitmapFile,
+                                           File commitFolder) {
+        if (!bitmapFile.exists()) {
+            return new ReachabilityBitmaps(commitFolder);
+        }
+        ReachabilityBitmaps index =
+                Utils.readObject(bitmapFile, ReachabilityBitmaps.class);
+        index.commitFolder = commitFolder;
+        index.positions = new HashMap<>();
+        for (int i = 0; i < index.objects.size(); i++) {
+            index.positions.put(index.objects.get(i), i);
+        }
+        return index;
+    }
+
+    /** Write this index to BITMAPFILE. */
+    public void save(File bitmapFile) {
+        Utils.writeObject(bitmapFile, this);
+    }
+
+    /** Compute and store bitmaps for each commit in TIPS. */
+    public void select(Collection<String> tips) {
+        for (String tip : tips) {
+            if (!bitmaps.containsKey(tip)) {
+                bitmaps.put(tip, reachable(tip));
+            }
+        }
+    }
+
+    /** Return the number of stored bitmaps. */
+    public int size() {
+        return bitmaps.size();
+    }
+
+    /** Return true iff a bitmap is stored for COMMITHASH, so that
+     *  reachable(COMMITHASH) reads no commits. */
+    public boolean covers(String commitHash) {
+        return bitmaps.containsKey(commitHash);
+    }
+
+    /** Return the bitmap of all objects reachable from COMMITHASH. The
+     *  walk stops at any commit that already has a stored bitmap, and at
+     *  commits whose parents are not present (shallow boundaries). */
+    public BitSet reachable(String commitHash) {
+        BitSet result = new BitSet();
+        if (commitHash == null) {
+            return result;
+        }
+        GitletEvents.GraphTraversal event =
+                new GitletEvents.GraphTraversal();
+        event.begin();
+        long visited = 0;
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(commitHash);
+        while (!toVisit.isEmpty()) {
+            String hash = toVisit.poll();
+            Integer pos = positions.get(hash);
+            if (pos != null && result.get(pos)) {
+                continue;
+            }
+            if (bitmaps.containsKey(hash)) {
+                result.or(bitmaps.get(hash));
+                continue;
+            }
+            File commitFile = Utils.join(commitFolder, hash);
+            if (!commitFile.exists()) {
+                continue;
+            }
+            Commit commit = Commit.read(commitFile);
+            visited += 1;
+            result.set(number(hash, true));
+            for (ObjectId blobHash : commit.getBlobs().values()) {
+                result.set(number(blobHash.toString(), false));
+            }
+            if (commit.getParentHash() != null) {
+                toVisit.add(commit.getParentHash());
+            }
+            if (commit.getParentHashMerge() != null) {
+                toVisit.add(commit.getParentHashMerge());
+            }
+        }
+        event.end("bitmap", commitHash, visited);
+        return result;
+    }
+
+    /** Return the bitmap of objects reachable from any commit in
+     *  COMMITHASHES. */
+    public BitSet reachable(Collection<String> commitHashes) {
+        BitSet result = new BitSet();
+        for (String hash : commitHashes) {
+            result.or(reachable(hash));
+        }
+        return result;
+    }
+
+    /** Return the objects set in A but not in B. */
+    public static BitSet andNot(BitSet a, BitSet b) {
+        BitSet result = (BitSet) a.clone();
+        result.andNot(b);
+        return result;
+    }
+
+    /** Return the hashes of the commits set in BITS. */
+    public ArrayList<String> commits(BitSet bits) {
+        return hashes(bits, true);
+    }
+
+    /** Return the hashes of the blobs set in BITS. */
+    public ArrayList<String> blobs(BitSet bits) {
+        return hashes(bits, false);
+    }
+
+    /** Return the hashes of the objects set in BITS that are commits if
+     *  COMMITS, and blobs otherwise. */
+    private ArrayList<String> hashes(BitSet bits, boolean commits) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            if (commitObjects.get(i) == commits) {
+                result.add(objects.get(i));
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of object HASH, assigning the next free number
+     *  if it has none. ISCOMMIT records its kind. */
+    private int number(String hash, boolean isCommit) {
+        Integer pos = positions.get(hash);
+        if (pos == null) {
+            pos = objects.size();
+            objects.add(hash);
+            positions.put(hash, pos);
+            if (isCommit) {
+                commitObjects.set(pos);
+            }
+        }
+        return pos;
+    }
+}
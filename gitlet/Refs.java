@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The branches of the repository in one .gitlet folder, each mapping a
+ *  name to a commit hash.  A branch is stored either loose, as the file
+ *  refs/heads/NAME holding its hash, or packed, as the line "HASH NAME"
+ *  of the file packed-refs, whose lines are sorted by name so that one
+ *  branch is found by binary search without parsing the others.  A loose
+ *  branch overrides a packed one of the same name.
+ *
+ *  Setting a branch writes only its loose file, so updating one branch
+ *  costs the same however many there are.  pack moves every loose branch
+ *  into packed-refs, as repack does for branches that are no longer
+ *  changing.  A name that cannot be stored loose, because a branch's
+ *  name is a folder of the other's (as "a" and "a/b"), is stored packed.
+ *  @author Arvind Vivekanandan
+ */
+class Refs {
+
+    /** Name of the folder of loose branches, relative to .gitlet. */
+    static final String HEADS = "refs" + File.separator + "heads";
+    /** Name of the packed branches file in a .gitlet folder. */
+    static final String PACKED_NAME = "packed-refs";
+
+    /** The branches of the .gitlet folder ROOT. */
+    Refs(File root) {
+        _heads = Utils.join(root, HEADS);
+        _packedFile = Utils.join(root, PACKED_NAME);
+    }
+
+    /** Return the hash of branch NAME, or null if there is none. */
+    String get(String name) {
+        if (!_cache.containsKey(name)) {
+            _cache.put(name, read(name));
+        }
+        return _cache.get(name);
+    }
+
+    /** Return true iff there is a branch NAME. */
+    boolean containsKey(String name) {
+        return get(name) != null;
+    }
+
+    /** Point branch NAME at HASH, creating it if needed. */
+    void put(String name, String hash) {
+        File loose = Utils.join(_heads, name);
+        if (blocked(loose)) {
+            TreeMap<String, String> packed = packed();
+            packed.put(name, hash);
+            writePacked(packed);
+        } else {
+            loose.getParentFile().mkdirs();
+            Utils.writeContents(loose, hash, "\n");
+        }
+        _cache.put(name, hash);
+    }
+
+    /** Point branch NAME at HASH unless it exists, and return its
+     *  previous hash, or null if it had none. */
+    String putIfAbsent(String name, String hash) {
+        String old = get(name);
+        if (old == null) {
+            put(name, hash);
+        }
+        return old;
+    }
+
+    /** Point branch NAME at VALUE if it points to EXPECTED (or does not
+     *  exist if EXPECTED is null), reading it afresh rather than from the
+     *  cache.  Return true iff it was changed.  The caller must hold an
+     *  exclusive lock of the repository. */
+    boolean compareAndSet(String name, String expected, String value) {
+        _cache.remove(name);
+        _packedContents = null;
+        String current = get(name);
+        if (current == null ? expected != null : !current.equals(expected)) {
+            return false;
+        }
+        put(name, value);
+        return true;
+    }
+
+    /** Delete branch NAME, if it exists. */
+    void remove(String name) {
+        File loose = Utils.join(_heads, name);
+        if (loose.isFile()) {
+            deleteLoose(loose);
+        }
+        if (findPacked(name) != null) {
+            TreeMap<String, String> packed = packed();
+            packed.remove(name);
+            writePacked(packed);
+        }
+        _cache.put(name, null);
+    }
+
+    /** Return every branch, sorted by name. */
+    TreeMap<String, String> all() {
+        TreeMap<String, String> result = packed();
+        collect(_heads, "", result);
+        return result;
+    }
+
+    /** Return the names of all branches, in order. */
+    Set<String> keySet() {
+        return all().keySet();
+    }
+
+    /** Return the hashes of all branches, in order of name. */
+    Collection<String> values() {
+        return all().values();
+    }
+
+    /** Move every loose branch into packed-refs. */
+    void pack() {
+        TreeMap<String, String> loose = new TreeMap<>();
+        collect(_heads, "", loose);
+        if (loose.isEmpty()) {
+            return;
+        }
+        TreeMap<String, String> packed = packed();
+        packed.putAll(loose);
+        writePacked(packed);
+        for (String name : loose.keySet()) {
+            deleteLoose(Utils.join(_heads, name));
+        }
+    }
+
+    /** Delete the loose branch file LOOSE and the folders it empties. */
+    private void deleteLoose(File loose) {
+        Journal.delete(loose);
+        for (File dir = loose.getParentFile(); !dir.equals(_heads)
+                 && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+    }
+
+    /** Return the hash of branch NAME from disk, or null. */
+    private String read(String name) {
+        File loose = Utils.join(_heads, name);
+        if (loose.isFile()) {
+            return Utils.readContentsAsString(loose).trim();
+        }
+        return findPacked(name);
+    }
+
+    /** Return true iff a branch cannot be stored in the file LOOSE,
+     *  because it is a folder or one of its folders is a file. */
+    private boolean blocked(File loose) {
+        if (loose.isDirectory()) {
+            return true;
+        }
+        for (File dir = loose.getParentFile(); !dir.equals(_heads);
+             dir = dir.getParentFile()) {
+            if (dir.isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Add the loose branches in FOLDER, whose names begin with PREFIX,
+     *  to RESULT. */
+    private void collect(File folder, String prefix,
+                         Map<String, String> result) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name + File.separator, result);
+            } else {
+                String hash = Utils.readContentsAsString(file).trim();
+                result.put(name, hash);
+                _cache.put(name, hash);
+            }
+        }
+    }
+
+    /** Return the hash of NAME in packed-refs, or null, by binary search
+     *  over its lines. */
+    private String findPacked(String name) {
+        byte[] packed = packedContents();
+        int lo = 0, hi = packed.length;
+        while (lo < hi) {
+            int start = (lo + hi) / 2;
+            while (start > lo && packed[start - 1] != '\n') {
+                start -= 1;
+            }
+            int end = start;
+            while (end < packed.length && packed[end] != '\n') {
+                end += 1;
+            }
+            int space = start;
+            while (space < end && packed[space] != ' ') {
+                space += 1;
+            }
+            int nameStart = Math.min(space + 1, end);
+            String lineName = new String(packed, nameStart,
+                    end - nameStart, StandardCharsets.UTF_8);
+            int cmp = name.compareTo(lineName);
+            if (cmp == 0) {
+                return new String(packed, start, space - start,
+                        StandardCharsets.UTF_8);
+            } else if (cmp < 0) {
+                hi = start;
+            } else {
+                lo = end + 1;
+            }
+        }
+        return null;
+    }
+
+    /** Return all the branches in packed-refs. */
+    private TreeMap<String, String> packed() {
+        TreeMap<String, String> result = new TreeMap<>();
+        String contents = new String(packedContents(),
+                StandardCharsets.UTF_8);
+        for (String line : contents.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                result.put(line.substring(space + 1),
+                        line.substring(0, space));
+            }
+        }
+        return result;
+    }
+
+    /** Replace packed-refs with the branches in PACKED. */
+    private void writePacked(TreeMap<String, String> packed) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> entry : packed.entrySet()) {
+            lines.add(entry.getValue() + " " + entry.getKey() + "\n");
+        }
+        Utils.writeContents(_packedFile, String.join("", lines));
+        _packedContents = null;
+    }
+
+    /** Return the contents of packed-refs, which are empty if it does not
+     *  exist. */
+    private byte[] packedContents() {
+        if (_packedContents == null) {
+            _packedContents = _packedFile.isFile()
+                ? Utils.readContents(_packedFile) : new byte[0];
+        }
+        return _packedContents;
+    }
+
+    /** The folder of loose branches. */
+    private final File _heads;
+    /** The packed branches file. */
+    private final File _packedFile;
+    /** The contents of _packedFile, or null if not yet read. */
+    private byte[] _packedContents;
+    /** The hashes of branches read or written so far, with null for
+     *  those known not to exist. */
+    private final HashMap<String, String> _cache = new HashMap<>();
+}
@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Pairs deleted files with added files that are renames of them.  Files
+ *  with equal blob hashes are paired first.  The rest are compared through
+ *  MinHash sketches of their lines: locality-sensitive hashing of the
+ *  sketches proposes candidate pairs, so files are never compared
+ *  pairwise, and each sketch is cached under its blob hash.  Files that
+ *  are empty or not text have no sketch and are paired only by hash.
+ *  @author Arvind Vivekanandan
+ */
+class RenameDetector {
+
+    /** Number of hash functions in a sketch. */
+    static final int SKETCH_SIZE = 64;
+    /** Number of sketch values hashed together into one LSH band. */
+    static final int BAND_ROWS = 4;
+    /** Minimum estimated similarity for a pair to count as a rename. */
+    static final double MIN_SIMILARITY = 0.5;
+
+    /** A detector caching sketches in SKETCHFOLDER, which is created if
+     *  needed. */
+    RenameDetector(File sketchFolder) {
+        _sketchFolder = sketchFolder;
+        sketchFolder.mkdir();
+    }
+
+    /** Return a map from each added path that is a rename to the deleted
+     *  path it came from.  DELETED and ADDED map paths to blob hashes.
+     *  Deleted contents are read from BLOBSFOLDER; the contents of an added
+     *  path are read from ADDEDFILE applied to the path. */
+    TreeMap<String, String> detect(Map<String, ObjectId> deleted,
+                                   Map<String, ObjectId> added,
+                                   File blobsFolder,
+                                   Function<String, File> addedFile) {
+        TreeMap<String, String> renames = new TreeMap<>();
+        HashMap<ObjectId, String> deletedByHash = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : deleted.entrySet()) {
+            deletedByHash.putIfAbsent(entry.getValue(), entry.getKey());
+        }
+        HashSet<String> used = new HashSet<>();
+        for (Map.Entry<String, ObjectId> entry : added.entrySet()) {
+            String source = deletedByHash.get(entry.getValue());
+            if (source != null && used.add(source)) {
+                renames.put(entry.getKey(), source);
+            }
+        }
+
+        HashMap<String, int[]> deletedSketches = new HashMap<>();
+        HashMap<Long, List<String>> buckets = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : deleted.entrySet()) {
+            if (used.contains(entry.getKey())) {
+                continue;
+            }
+            int[] sketch = sketch(entry.getValue(),
+                    Utils.join(blobsFolder, entry.getValue().toString()));
+            if (sketch == null) {
+                continue;
+            }
+            deletedSketches.put(entry.getKey(), sketch);
+            for (int band = 0; band < SKETCH_SIZE / BAND_ROWS; band += 1) {
+                buckets.computeIfAbsent(bandKey(sketch, band),
+                        k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+
+        ArrayList<Object[]> candidates = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> entry : added.entrySet()) {
+            if (renames.containsKey(entry.getKey())
+                    || deletedSketches.isEmpty()) {
+                continue;
+            }
+            int[] sketch = sketch(entry.getValue(),
+                    addedFile.apply(entry.getKey()));
+            if (sketch == null) {
+                continue;
+            }
+            HashSet<String> seen = new HashSet<>();
+            for (int band = 0; band < SKETCH_SIZE / BAND_ROWS; band += 1) {
+                for (String source : buckets.getOrDefault(
+                        bandKey(sketch, band), List.of())) {
+                    if (!seen.add(source)) {
+                        continue;
+                    }
+                    double similarity =
+                            similarity(sketch, deletedSketches.get(source));
+                    if (similarity >= MIN_SIMILARITY) {
+                        candidates.add(new Object[] {similarity,
+                            entry.getKey(), source});
+                    }
+                }
+            }
+        }
+        candidates.sort((a, b) -> Double.compare((double) b[0],
+                (double) a[0]));
+        for (Object[] candidate : candidates) {
+            String target = (String) candidate[1];
+            String source = (String) candidate[2];
+            if (!renames.containsKey(target) && used.add(source)) {
+                renames.put(target, source);
+            }
+        }
+        return renames;
+    }
+
+    /** Return the sketch of the blob with hash HASH, whose contents are in
+     *  FILE, a blob file or a working file, using the cached one if there
+     *  is one.  Return null if the contents are empty or are not text, or
+     *  cannot be read; an empty cache file records that. */
+    int[] sketch(ObjectId hash, File file) {
+        File cached = Utils.join(_sketchFolder, hash.toString());
+        if (cached.exists()) {
+            byte[] contents = Utils.readContents(cached);
+            if (contents.length != 4 * SKETCH_SIZE) {
+                return null;
+            }
+            int[] sketch = new int[SKETCH_SIZE];
+            ByteBuffer.wrap(contents).asIntBuffer().get(sketch);
+            return sketch[0] == Integer.MAX_VALUE ? null : sketch;
+        }
+        byte[] contents;
+        try {
+            if (GitletEvents.kind(file).equals("blob")) {
+                try (InputStream in = ChunkedBlobs.open(file)) {
+                    contents = in.readAllBytes();
+                }
+            } else {
+                contents = Files.readAllBytes(file.toPath());
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        List<String> lines = ChunkedBlobs.textLines(contents);
+        if (lines == null || lines.isEmpty()) {
+            Utils.writeContents(cached, new byte[0]);
+            return null;
+        }
+        int[] sketch = new int[SKETCH_SIZE];
+        Arrays.fill(sketch, Integer.MAX_VALUE);
+        for (String line : lines) {
+            int end = line.endsWith("\r\n") ? line.length() - 2
+                : line.endsWith("\n") ? line.length() - 1 : line.length();
+            int shingle = line.substring(0, end).hashCode();
+            for (int i = 0; i < SKETCH_SIZE; i += 1) {
+                sketch[i] = Math.min(sketch[i], mix(shingle, i));
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 * SKETCH_SIZE);
+        buffer.asIntBuffer().put(sketch);
+        Utils.writeContents(cached, buffer.array());
+        return sketch;
+    }
+
+    /** Return the estimated Jaccard similarity of the line sets sketched
+     *  by SKETCH1 and SKETCH2. */
+    static double similarity(int[] sketch1, int[] sketch2) {
+        int same = 0;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            if (sketch1[i] == sketch2[i]) {
+                same += 1;
+            }
+        }
+        return (double) same / SKETCH_SIZE;
+    }
+
+    /** Return the LSH bucket of band BAND of SKETCH. */
+    private static long bandKey(int[] sketch, int band) {
+        long key = band;
+        for (int i = band * BAND_ROWS; i < (band + 1) * BAND_ROWS; i += 1) {
+            key = key * 0x100000001b3L + sketch[i];
+        }
+        return key;
+    }
+
+    /** Return the value of hash function I of the sketch on SHINGLE. */
+    private static int mix(int shingle, int i) {
+        long h = (shingle & 0xffffffffL) * 0x9E3779B97F4A7C15L
+            + (i + 1) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) (h >>> 33);
+    }
+
+    /** Folder holding one cached sketch per blob hash. */
+    private final File _sketchFolder;
+}
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Set;
+
+/** Advisory locks on the repository in one .gitlet folder, so that
+ *  gitlet processes sharing a repository do not overwrite each other's
+ *  updates.  They are held with FileChannel.lock on single-byte regions
+ *  of the file "lock" in the folder: region STATE guards the repository
+ *  state, region JOURNAL the journal, and region MONITOR is held by a
+ *  running Monitor.  The operating system releases them when the process
+ *  exits, however it exits.
+ *
+ *  Commands in READERS hold STATE shared for their whole run, and other
+ *  commands hold it exclusively, except those in SWAPPERS.  These read
+ *  and write objects under a shared lock, which is harmless as objects
+ *  are named by their contents, and then move a branch with
+ *  GitletRepo.updateRef, which takes the lock exclusively only to check
+ *  that the branch is where it was and set it (compare-and-swap).  So
+ *  readers and committers do not wait on one another until the moment a
+ *  ref changes.
+ *
+ *  A process waits as long as needed for its own repository's lock, but
+ *  at most REMOTE_TIMEOUT for a remote's, since two processes fetching
+ *  from each other's repositories would otherwise wait forever.
+ *  @author Arvind Vivekanandan
+ */
+class RepoLock {
+
+    /** Name of the lock file in a .gitlet folder. */
+    static final String LOCK_NAME = "lock";
+    /** Region of the lock file guarding the repository state. */
+    static final long STATE = 0;
+    /** Region of the lock file guarding the journal. */
+    static final long JOURNAL = 1;
+    /** Region of the lock file held by a running Monitor. */
+    static final long MONITOR = 2;
+    /** Milliseconds to wait for the lock of a remote repository. */
+    static final long REMOTE_TIMEOUT = 30 * 1000;
+    /** Milliseconds between attempts to take a lock with a timeout. */
+    static final long POLL_INTERVAL = 10;
+    /** Commands that only read the repository. */
+    static final Set<String> READERS =
+        Set.of("log", "global-log", "find", "status", "diff", "blame");
+    /** Commands that update refs by compare-and-swap. */
+    static final Set<String> SWAPPERS = Set.of("commit", "push");
+    /** Commands that take no lock. */
+    static final Set<String> UNLOCKED = Set.of("monitor");
+
+    /** Lock the repository in the current directory, if there is one, as
+     *  needed for COMMAND. */
+    static void lockFor(String command) {
+        if (!GitletRepo.GITLET_FOLDER.isDirectory()
+            || UNLOCKED.contains(command)) {
+            return;
+        }
+        RepoLock lock = of(GitletRepo.GITLET_FOLDER);
+        if (READERS.contains(command) || SWAPPERS.contains(command)) {
+            lock.lockShared(-1);
+        } else {
+            lock.lockExclusive(-1);
+        }
+    }
+
+    /** Return the lock of the .gitlet folder ROOT. */
+    static synchronized RepoLock of(File root) {
+        String key = root.toPath().toAbsolutePath().normalize().toString();
+        RepoLock result = LOCKS.get(key);
+        if (result == null) {
+            result = new RepoLock(root);
+            LOCKS.put(key, result);
+        }
+        return result;
+    }
+
+    /** A lock on the .gitlet folder ROOT. */
+    private RepoLock(File root) {
+        _file = Utils.join(root, LOCK_NAME);
+    }
+
+    /** Hold STATE shared, releasing any exclusive hold, waiting at most
+     *  TIMEOUT milliseconds, or indefinitely if TIMEOUT is negative.
+     *  Exits with an error if the lock could not be taken in time. */
+    synchronized void lockShared(long timeout) {
+        if (_state != null && _state.isShared()) {
+            return;
+        }
+        unlock();
+        _state = acquire(STATE, true, timeout);
+    }
+
+    /** Hold STATE exclusively, as for lockShared.  A shared hold is
+     *  released first, so the state must be read again afterwards. */
+    synchronized void lockExclusive(long timeout) {
+        if (_state != null && !_state.isShared()) {
+            return;
+        }
+        unlock();
+        _state = acquire(STATE, false, timeout);
+    }
+
+    /** Return true iff this process holds STATE exclusively. */
+    synchronized boolean isExclusive() {
+        return _state != null && !_state.isShared();
+    }
+
+    /** Release STATE, if it is held. */
+    synchronized void unlock() {
+        if (_state != null) {
+            try {
+                _state.release();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _state = null;
+        }
+    }
+
+    /** Return an exclusive lock of JOURNAL, to be released by the caller,
+     *  waiting as long as needed. */
+    FileLock lockJournal() {
+        return acquire(JOURNAL, false, -1);
+    }
+
+    /** Return a hold on MONITOR, to be kept while a monitor runs, or
+     *  null if another process holds it. */
+    synchronized FileLock lockMonitor() {
+        try {
+            return channel().tryLock(MONITOR, 1, false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff another process is running a monitor. */
+    synchronized boolean isMonitored() {
+        try {
+            FileLock lock = channel().tryLock(MONITOR, 1, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a lock of REGION, shared iff SHARED, waiting at most TIMEOUT
+     *  milliseconds, or indefinitely if it is negative.  Exits with an
+     *  error if it could not be taken in time. */
+    private synchronized FileLock acquire(long region, boolean shared,
+                                          long timeout) {
+        try {
+            if (timeout < 0) {
+                return channel().lock(region, 1, shared);
+            }
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                FileLock lock = channel().tryLock(region, 1, shared);
+                if (lock != null) {
+                    return lock;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    System.out.println("Remote repository is locked.");
+                    System.exit(0);
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Return the lock file, opened when first needed. */
+    private FileChannel channel() throws IOException {
+        if (_channel == null) {
+            _channel = FileChannel.open(_file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return _channel;
+    }
+
+    /** The locks by the absolute path of their .gitlet folder. */
+    private static final HashMap<String, RepoLock> LOCKS = new HashMap<>();
+
+    /** The lock file. */
+    private final File _file;
+    /** The open lock file, or null before the first lock is taken. */
+    private FileChannel _channel;
+    /** The hold on STATE, or null if it is not held. */
+    private FileLock _state;
+}
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Optional per-command instrumentation: the wall time of named phases
+ *  and counts of object-store I/O, deserializations, hashing and folder
+ *  listings.  It is enabled by the environment variable GITLET_TRACE or
+ *  by a leading --trace or --trace=FILE argument.  A value of 1 or stderr
+ *  (or a bare --trace) prints a summary on the standard error when the
+ *  command exits; any other value names a file to which one JSON line
+ *  per command is appended.  When disabled, each hook is a single test
+ *  of a static field.
+ *  @author Arvind Vivekanandan
+ */
+class Stats {
+
+    /** The quantities counted. */
+    enum Counter {
+        /** Files read or written through Utils, and their sizes. */
+        OBJECTS_READ, BYTES_READ, OBJECTS_WRITTEN, BYTES_WRITTEN,
+        /** Calls of Utils.readObject. */
+        DESERIALIZATIONS,
+        /** Calls of Utils.sha1, and the number of bytes they hashed. */
+        SHA1_CALLS, SHA1_BYTES,
+        /** Listings of COMMIT_FOLDER and of BLOBS_FOLDER. */
+        COMMIT_LISTINGS, BLOB_LISTINGS
+    }
+
+    /** True iff instrumentation is on. */
+    static boolean enabled;
+
+    /** Turn instrumentation on if requested by the environment or by a
+     *  leading --trace argument in ARGS, and return ARGS without that
+     *  argument. */
+    static String[] configure(String[] args) {
+        String target = System.getenv("GITLET_TRACE");
+        if (args.length > 0 && args[0].startsWith("--trace")) {
+            target = args[0].startsWith("--trace=")
+                ? args[0].substring("--trace=".length()) : "stderr";
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (target == null || target.isEmpty() || target.equals("0")) {
+            return args;
+        }
+        enabled = true;
+        String[] command = args;
+        String output = target;
+        long start = System.nanoTime();
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            report(command, System.nanoTime() - start, output)));
+        return args;
+    }
+
+    /** Add N to COUNTER. */
+    static void count(Counter counter, long n) {
+        if (enabled) {
+            COUNTERS[counter.ordinal()].add(n);
+        }
+    }
+
+    /** Count a listing of FOLDER, if it is the commit or blob folder. */
+    static void listed(File folder) {
+        if (!enabled) {
+            return;
+        }
+        if (folder.equals(GitletRepo.COMMIT_FOLDER)) {
+            count(Counter.COMMIT_LISTINGS, 1);
+        } else if (folder.equals(GitletRepo.BLOBS_FOLDER)) {
+            count(Counter.BLOB_LISTINGS, 1);
+        }
+    }
+
+    /** Return a start time to pass to stop, or 0 if disabled. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Record that one execution of PHASE, begun at START, has ended. */
+    static void stop(String phase, long start) {
+        if (enabled) {
+            long[] totals = PHASES.computeIfAbsent(phase, p -> new long[2]);
+            synchronized (totals) {
+                totals[0] += 1;
+                totals[1] += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /** Report the statistics of COMMAND, which took NANOS ns, to OUTPUT:
+     *  "1" or "stderr" for a summary, or else a trace file name. */
+    private static void report(String[] command, long nanos, String output) {
+        TreeMap<String, long[]> phases = new TreeMap<>(PHASES);
+        if (output.equals("1") || output.equals("stderr")) {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("gitlet %s: %.1f ms%n",
+                    String.join(" ", command), nanos / 1e6));
+            for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+                out.append(String.format("  %-22s %6d x %10.1f ms%n",
+                        phase.getKey(), phase.getValue()[0],
+                        phase.getValue()[1] / 1e6));
+            }
+            for (Counter counter : Counter.values()) {
+                out.append(String.format("  %-22s %12d%n",
+                        counter.name().toLowerCase(), value(counter)));
+            }
+            System.err.print(out);
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"command\": [");
+        for (int i = 0; i < command.length; i += 1) {
+            json.append(i == 0 ? "" : ", ").append(quote(command[i]));
+        }
+        json.append(String.format("], \"wall_ms\": %.3f, \"phases\": {",
+                nanos / 1e6));
+        String sep = "";
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            json.append(String.format("%s%s: {\"calls\": %d, \"ms\": %.3f}",
+                    sep, quote(phase.getKey()), phase.getValue()[0],
+                    phase.getValue()[1] / 1e6));
+            sep = ", ";
+        }
+        json.append("}, \"counters\": {");
+        sep = "";
+        for (Counter counter : Counter.values()) {
+            json.append(String.format("%s\"%s\": %d", sep,
+                    counter.name().toLowerCase(), value(counter)));
+            sep = ", ";
+        }
+        json.append("}}\n");
+        try {
+            Files.writeString(new File(output).toPath(), json,
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            System.err.println("Could not write trace: " + excp.getMessage());
+        }
+    }
+
+    /** Return the current value of COUNTER. */
+    private static long value(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /** Return S as a JSON string literal. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** The counters, indexed by Counter ordinal. */
+    private static final LongAdder[] COUNTERS =
+        new LongAdder[Counter.values().length];
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i += 1) {
+            COUNTERS[i] = new LongAdder();
+        }
+    }
+
+    /** Number of calls and total nanoseconds of each phase. */
+    private static final ConcurrentHashMap<String, long[]> PHASES =
+        new ConcurrentHashMap<>();
+}
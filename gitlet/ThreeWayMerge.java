@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/** A line-level three-way merge of two versions of a file that were both
+ *  derived from a common base.  Changes from base to each side are found
+ *  with Diff; changes touching disjoint regions of the base are combined,
+ *  and only the regions both sides changed differently become conflicts.
+ *  Lines carry their own terminators, as from ChunkedBlobs.readTextLines,
+ *  so that a clean merge keeps each line's bytes as they were.
+ *  @author Arvind Vivekanandan
+ */
+class ThreeWayMerge {
+
+    /** A merge of OURS and THEIRS, both derived from BASE. */
+    ThreeWayMerge(List<String> base, List<String> ours, List<String> theirs) {
+        _base = base;
+        _ours = ours;
+        _theirs = theirs;
+        Diff diff = new Diff();
+        diff.setSequences(base, ours);
+        _oursEdits = diff.diffs();
+        diff.setSequences(base, theirs);
+        _theirsEdits = diff.diffs();
+    }
+
+    /** Write the merged lines to OUT, marking conflicting regions as merge
+     *  does for whole files.  Return true iff there was a conflict. */
+    boolean write(Writer out) throws IOException {
+        boolean conflict = false;
+        int i = 0, j = 0, basePos = 0, oursOffset = 0, theirsOffset = 0;
+        while (i < _oursEdits.length || j < _theirsEdits.length) {
+            int start = Math.min(editStart(_oursEdits, i),
+                    editStart(_theirsEdits, j));
+            writeLines(out, _base, basePos, start);
+            int end = start, i0 = i, j0 = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (editStart(_oursEdits, i) <= end) {
+                    end = Math.max(end, _oursEdits[i] + _oursEdits[i + 1]);
+                    i += 4;
+                    grew = true;
+                }
+                if (editStart(_theirsEdits, j) <= end) {
+                    end = Math.max(end,
+                            _theirsEdits[j] + _theirsEdits[j + 1]);
+                    j += 4;
+                    grew = true;
+                }
+            }
+            int oursGrowth = growth(_oursEdits, i0, i);
+            int theirsGrowth = growth(_theirsEdits, j0, j);
+            List<String> oursChunk = _ours.subList(start + oursOffset,
+                    end + oursOffset + oursGrowth);
+            List<String> theirsChunk = _theirs.subList(start + theirsOffset,
+                    end + theirsOffset + theirsGrowth);
+            if (j == j0 || oursChunk.equals(theirsChunk)) {
+                writeLines(out, oursChunk, 0, oursChunk.size());
+            } else if (i == i0) {
+                writeLines(out, theirsChunk, 0, theirsChunk.size());
+            } else {
+                conflict = true;
+                out.write("<<<<<<< HEAD\n");
+                writeSide(out, oursChunk);
+                out.write("=======\n");
+                writeSide(out, theirsChunk);
+                out.write(">>>>>>>\n");
+            }
+            oursOffset += oursGrowth;
+            theirsOffset += theirsGrowth;
+            basePos = end;
+        }
+        writeLines(out, _base, basePos, _base.size());
+        return conflict;
+    }
+
+    /** Return the base position of the edit at K of EDITS, or
+     *  Integer.MAX_VALUE if there is none. */
+    private static int editStart(int[] edits, int k) {
+        return k < edits.length ? edits[k] : Integer.MAX_VALUE;
+    }
+
+    /** Return the number of lines added minus the number removed by the
+     *  edits of EDITS from FROM up to TO. */
+    private static int growth(int[] edits, int from, int to) {
+        int result = 0;
+        for (int k = from; k < to; k += 4) {
+            result += edits[k + 3] - edits[k + 1];
+        }
+        return result;
+    }
+
+    /** Write lines [FROM .. TO - 1] of LINES to OUT. */
+    private static void writeLines(Writer out, List<String> lines,
+                                   int from, int to) throws IOException {
+        for (int k = from; k < to; k += 1) {
+            out.write(lines.get(k));
+        }
+    }
+
+    /** Write LINES, one side of a conflict, to OUT, ending them with a
+     *  newline if the last has none so that the next marker starts a
+     *  line. */
+    private static void writeSide(Writer out, List<String> lines)
+            throws IOException {
+        writeLines(out, lines, 0, lines.size());
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+
+    /** The common base and the two derived versions. */
+    private final List<String> _base, _ours, _theirs;
+    /** Edits from _base to _ours and to _theirs, as returned by
+     *  Diff.diffs. */
+    private final int[] _oursEdits, _theirsEdits;
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.util.List;
+
+/** Formats the differences between two versions of a file as a unified
+ *  diff, using Diff to find the edits.
+ *  @author Arvind Vivekanandan
+ */
+class UnifiedDiff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Return the unified diff for PATH from LINES1 to LINES2. A null
+     *  list means the file does not exist on that side. Returns "" if the
+     *  two versions are identical. */
+    static String format(String path, List<String> lines1,
+                         List<String> lines2) {
+        return format(path, path, lines1, lines2);
+    }
+
+    /** Return the unified diff from LINES1 of the file PATH1 to LINES2 of
+     *  the file PATH2, which is a rename of PATH1 if the paths differ. A
+     *  null list means the file does not exist on that side. Returns "" if
+     *  there is no difference. */
+    static String format(String path1, String path2, List<String> lines1,
+                         List<String> lines2) {
+        Diff diff = new Diff();
+        diff.setSequences(lines1 == null ? List.of() : lines1,
+                lines2 == null ? List.of() : lines2);
+        int[] edits = diff.diffs();
+        boolean renamed = !path1.equals(path2);
+        if (edits.length == 0 && !renamed
+            && (lines1 == null) == (lines2 == null)) {
+            return "";
+        }
+        List<String> a = diff.sequence1(), b = diff.sequence2();
+        StringBuilder out = new StringBuilder();
+        out.append("diff --git a/").append(path1).append(" b/").append(path2)
+            .append('\n');
+        if (renamed) {
+            out.append("rename from ").append(path1).append('\n');
+            out.append("rename to ").append(path2).append('\n');
+            if (edits.length == 0) {
+                return out.toString();
+            }
+        }
+        out.append("--- ").append(lines1 == null ? "/dev/null" : "a/" + path1)
+            .append('\n');
+        out.append("+++ ").append(lines2 == null ? "/dev/null" : "b/" + path2)
+            .append('\n');
+        int first = 0;
+        while (first < edits.length) {
+            int last = first;
+            while (last + 4 < edits.length
+                   && edits[last + 4] - (edits[last] + edits[last + 1])
+                      <= 2 * CONTEXT) {
+                last += 4;
+            }
+            int start1 = Math.max(0, edits[first] - CONTEXT);
+            int start2 = edits[first + 2] - (edits[first] - start1);
+            int end1 = Math.min(a.size(),
+                                edits[last] + edits[last + 1] + CONTEXT);
+            int end2 = edits[last + 2] + edits[last + 3]
+                + (end1 - edits[last] - edits[last + 1]);
+            out.append("@@ -").append(range(start1, end1 - start1))
+                .append(" +").append(range(start2, end2 - start2))
+                .append(" @@\n");
+            int pos = start1;
+            for (int k = first; k <= last; k += 4) {
+                appendLines(out, ' ', a, pos, edits[k]);
+                appendLines(out, '-', a, edits[k], edits[k] + edits[k + 1]);
+                appendLines(out, '+', b, edits[k + 2],
+                            edits[k + 2] + edits[k + 3]);
+                pos = edits[k] + edits[k + 1];
+            }
+            appendLines(out, ' ', a, pos, end1);
+            first = last + 4;
+        }
+        return out.toString();
+    }
+
+    /** Return the hunk header range for LEN lines starting at 0-based
+     *  line START. */
+    private static String range(int start, int len) {
+        if (len == 0) {
+            return start + ",0";
+        }
+        return (start + 1) + "," + len;
+    }
+
+    /** Append lines [FROM .. TO - 1] of LINES to OUT, each preceded by
+     *  PREFIX. */
+    private static void appendLines(StringBuilder out, char prefix,
+                                    List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            out.append(prefix).append(lines.get(k)).append('\n');
+        }
+    }
+}
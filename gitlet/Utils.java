@@ -2,12 +2,12 @@
  * University of California.  All rights reserved. */
 package gitlet;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -17,7 +17,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -34,22 +33,36 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        return ObjectId.toHex(digest(vals));
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of VALS, as for sha1,
+     *  as an ObjectId. */
+    static ObjectId sha1Id(Object... vals) {
+        return ObjectId.of(digest(vals));
+    }
+
+    /** Returns the SHA-1 digest of the concatenation of VALS, as for
+     *  sha1. */
+    private static byte[] digest(Object... vals) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            Stats.count(Stats.Counter.SHA1_CALLS, 1);
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    Stats.count(Stats.Counter.SHA1_BYTES,
+                                ((byte[]) val).length);
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] bytes =
+                        ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    Stats.count(Stats.Counter.SHA1_BYTES, bytes.length);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return md.digest();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -61,6 +74,44 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read in blocks so
+     *  that the whole file need not be in memory.  Equal to
+     *  sha1(readContents(FILE)). */
+    static String sha1(File file) {
+        return ObjectId.toHex(digest(file));
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, as for sha1, as an
+     *  ObjectId. */
+    static ObjectId sha1Id(File file) {
+        return ObjectId.of(digest(file));
+    }
+
+    /** Returns the SHA-1 digest of the contents of FILE, as for sha1. */
+    private static byte[] digest(File file) {
+        GitletEvents.ObjectRead event = new GitletEvents.ObjectRead();
+        event.begin();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                total += n;
+            }
+            Stats.count(Stats.Counter.SHA1_CALLS, 1);
+            Stats.count(Stats.Counter.SHA1_BYTES, total);
+            Stats.count(Stats.Counter.OBJECTS_READ, 1);
+            Stats.count(Stats.Counter.BYTES_READ, total);
+            event.end(file, total);
+            return md.digest();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -95,8 +146,14 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        GitletEvents.ObjectRead event = new GitletEvents.ObjectRead();
+        event.begin();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            event.end(file, contents.length);
+            Stats.count(Stats.Counter.OBJECTS_READ, 1);
+            Stats.count(Stats.Counter.BYTES_READ, contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -114,13 +171,14 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        GitletEvents.ObjectWrite event = new GitletEvents.ObjectWrite();
+        event.begin();
         try {
             if (file.isDirectory()) {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
-            BufferedOutputStream str =
-                new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            ByteArrayOutputStream str = new ByteArrayOutputStream();
             for (Object obj : contents) {
                 if (obj instanceof byte[]) {
                     str.write((byte[]) obj);
@@ -128,7 +186,11 @@ class Utils {
                     str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
                 }
             }
-            str.close();
+            long total = str.size();
+            Journal.write(file, str.toByteArray());
+            event.end(file, total);
+            Stats.count(Stats.Counter.OBJECTS_WRITTEN, 1);
+            Stats.count(Stats.Counter.BYTES_WRITTEN, total);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -139,10 +201,31 @@ class Utils {
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
+            return readObject(new FileInputStream(file), file,
+                    file.length(), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from IN, which holds the LENGTH
+     *  bytes stored for FILE, casting it to EXPECTEDCLASS, and close IN.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(InputStream in, File file,
+                                                 long length,
+                                                 Class<T> expectedClass) {
+        GitletEvents.ObjectRead event = new GitletEvents.ObjectRead();
+        event.begin();
+        try (ObjectInputStream objects = new ObjectInputStream(in)) {
+            T result = expectedClass.cast(objects.readObject());
+            if (event.shouldCommit()) {
+                event.end(file, length);
+            }
+            if (Stats.enabled) {
+                Stats.count(Stats.Counter.DESERIALIZATIONS, 1);
+                Stats.count(Stats.Counter.OBJECTS_READ, 1);
+                Stats.count(Stats.Counter.BYTES_READ, length);
+            }
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
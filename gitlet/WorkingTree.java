@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/** The working tree of a repository: the files under its root folder, in
+ *  any subfolder, other than the .gitlet folder and the files and
+ *  folders matched by the ignore file.  Files are named by their paths
+ *  relative to the root, with File.separator between folders, which is
+ *  how they are named in commits.
+ *
+ *  The ignore file, IGNORE_NAME in the root, holds one glob pattern (as
+ *  for FileSystem.getPathMatcher) per line; blank lines and lines
+ *  beginning with # are skipped.  A pattern ending in / matches only
+ *  folders.  A pattern containing another / is matched against the whole
+ *  path from the root, and any other against the last name of a path, so
+ *  "build/" ignores every folder named build and "docs/*.html" only the
+ *  HTML files directly in docs.  An ignored folder is not entered.
+ *
+ *  forEach walks the tree with one fork-join task per folder, reading
+ *  each folder as a stream, so that large trees are listed by all cores
+ *  without building an array of any folder's entries.
+ *  @author Arvind Vivekanandan
+ */
+class WorkingTree {
+
+    /** Name of the ignore file. */
+    static final String IGNORE_NAME = ".gitletignore";
+
+    /** The working tree whose root folder is ROOT. */
+    WorkingTree(File root) {
+        _root = root;
+        File ignore = Utils.join(root, IGNORE_NAME);
+        if (ignore.isFile()) {
+            for (String line
+                     : Utils.readContentsAsString(ignore).split("\n")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    _ignored.add(new Pattern(line));
+                }
+            }
+        }
+    }
+
+    /** Call ACTION on the name of every file in this tree, in no
+     *  particular order and possibly from several threads at once. */
+    void forEach(Consumer<String> action) {
+        forEach("", action);
+    }
+
+    /** Call ACTION on the name of every file in this tree under the
+     *  folder FOLDER (all files if it is ""), as for forEach. */
+    void forEach(String folder, Consumer<String> action) {
+        String prefix = folder.isEmpty() ? "" : folder + File.separator;
+        ForkJoinPool.commonPool().invoke(
+            new Walk(Utils.join(_root, folder).toPath(), prefix, action));
+    }
+
+    /** Return the root folder. */
+    File root() {
+        return _root;
+    }
+
+    /** Return true iff the file or folder (if DIRECTORY) NAME is ignored. */
+    boolean isIgnored(String name, boolean directory) {
+        for (Pattern pattern : _ignored) {
+            if (pattern.matches(name, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Copy the contents of the blob file SOURCE to the file NAME,
+     *  creating its folders if needed.  A chunked blob is streamed. */
+    void copy(File source, String name) {
+        File file = Utils.join(_root, name);
+        file.getParentFile().mkdirs();
+        try (InputStream in = ChunkedBlobs.open(source)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete the file NAME, if it exists, and then any folders that this
+     *  leaves empty.  Return true iff the file was deleted.  As for
+     *  Utils.restrictedDelete, refuses unless the root folder contains a
+     *  .gitlet folder. */
+    boolean delete(String name) {
+        if (!Utils.join(_root, ".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = Utils.join(_root, name);
+        if (!file.isFile()) {
+            return false;
+        }
+        boolean deleted = file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(_root)
+                 && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+        return deleted;
+    }
+
+    /** The task listing the folder DIR, whose files' names begin with
+     *  PREFIX, and forking a task for each subfolder. */
+    private class Walk extends RecursiveAction {
+
+        /** A task calling ACTION on the files under DIR, whose names
+         *  begin with PREFIX. */
+        Walk(Path dir, String prefix, Consumer<String> action) {
+            _dir = dir;
+            _prefix = prefix;
+            _action = action;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<Walk> subfolders = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(_dir)) {
+                for (Path entry : entries) {
+                    String name = _prefix + entry.getFileName();
+                    BasicFileAttributes attributes = Files.readAttributes(
+                            entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!name.equals(".gitlet")
+                            && !isIgnored(name, true)) {
+                            Walk walk = new Walk(entry,
+                                    name + File.separator, _action);
+                            walk.fork();
+                            subfolders.add(walk);
+                        }
+                    } else if (attributes.isRegularFile()
+                               && !isIgnored(name, false)) {
+                        _action.accept(name);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Walk walk : subfolders) {
+                walk.join();
+            }
+        }
+
+        /** The folder listed. */
+        private final Path _dir;
+        /** The prefix of the names of its files. */
+        private final String _prefix;
+        /** The action on each file. */
+        private final Consumer<String> _action;
+    }
+
+    /** One pattern of the ignore file. */
+    private static class Pattern {
+
+        /** The pattern on line LINE of the ignore file. */
+        Pattern(String line) {
+            _directoryOnly = line.endsWith("/");
+            if (_directoryOnly) {
+                line = line.substring(0, line.length() - 1);
+            }
+            _anchored = line.indexOf('/', 1) >= 0 || line.startsWith("/");
+            if (line.startsWith("/")) {
+                line = line.substring(1);
+            }
+            _matcher = FileSystems.getDefault().getPathMatcher("glob:" + line);
+        }
+
+        /** Return true iff this matches the file or folder (if DIRECTORY)
+         *  NAME. */
+        boolean matches(String name, boolean directory) {
+            if (_directoryOnly && !directory) {
+                return false;
+            }
+            Path path = Paths.get(name);
+            return _matcher.matches(_anchored ? path : path.getFileName());
+        }
+
+        /** True iff this matches folders only. */
+        private final boolean _directoryOnly;
+        /** True iff this is matched against whole paths. */
+        private final boolean _anchored;
+        /** Matches the glob. */
+        private final PathMatcher _matcher;
+    }
+
+    /** The root folder. */
+    private final File _root;
+    /** The patterns of the ignore file. */
+    private final ArrayList<Pattern> _ignored = new ArrayList<>();
+}